@@ -0,0 +1,46 @@
+package ir.sahab.cleanup.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The clean-up statements which are used by the benchmarks.
+ */
+final class Closeables {
+
+    private Closeables() {
+    }
+
+    /**
+     * A statement which does nothing, to measure the overhead of the library itself.
+     */
+    static final AutoCloseable NO_OP = () -> { };
+
+    /**
+     * Returns a statement which always fails. A fresh exception includes the cost of filling its stack trace,
+     * which is what a real failing resource does.
+     */
+    static AutoCloseable failing(boolean freshException) {
+        if (freshException) {
+            return () -> {
+                throw new IOException("Connection reset");
+            };
+        }
+        IOException exception = new IOException("Connection reset");
+        return () -> {
+            throw exception;
+        };
+    }
+
+    /**
+     * Returns a statement which blocks the calling thread for the given time, like a blocking I/O operation.
+     */
+    static AutoCloseable blocking(long micros) {
+        if (micros == 0) {
+            return NO_OP;
+        }
+        long nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+        return () -> LockSupport.parkNanos(nanos);
+    }
+}
@@ -0,0 +1,54 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.Cleanups;
+import ir.sahab.cleanup.ConcurrentCleanups;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures registering into a shared registry from many threads: the lock-free {@link ConcurrentCleanups}
+ * against a {@link Cleanups} which is guarded by a lock. Run it with different number of threads (e.g.,
+ * {@code -t 1}, {@code -t 4}, {@code -t 16}) to see how it scales. The registries are not drained during an
+ * iteration, hence the large heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(Threads.MAX)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrentRegistrationBenchmark {
+
+    private ConcurrentCleanups concurrent;
+    private Cleanups synchronizedCleanups;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        concurrent = ConcurrentCleanups.empty();
+        synchronizedCleanups = Cleanups.empty();
+    }
+
+    @Benchmark
+    public void lockFree() {
+        concurrent.and(Closeables.NO_OP);
+    }
+
+    @Benchmark
+    public void locked() {
+        synchronized (synchronizedCleanups) {
+            synchronizedCleanups.and(Closeables.NO_OP);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.DeferredCleanups;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time which a request thread spends on closing a resource: closing it inline against deferring
+ * it to a {@link DeferredCleanups}, on many threads at once. With {@code blockMicros} of zero it measures the
+ * overhead of the queue, otherwise each close blocks like a socket which flushes its buffer. When the closers
+ * can not keep up, the queue fills and the backpressure policy (closing inline) shows in the results too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeferBenchmark {
+
+    @Param({"0", "10"})
+    public long blockMicros;
+
+    private AutoCloseable closeable;
+    private DeferredCleanups deferred;
+
+    @Setup
+    public void setUp() {
+        closeable = Closeables.blocking(blockMicros);
+        deferred = DeferredCleanups.start(65536, 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deferred.close();
+    }
+
+    @Benchmark
+    public void inline() throws Exception {
+        closeable.close();
+    }
+
+    @Benchmark
+    public void deferred() {
+        deferred.defer(closeable);
+    }
+}
@@ -0,0 +1,52 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.Cleanups;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of doing the clean-up statements when all of them succeed, which is the common case.
+ * The statements do nothing, so it is the overhead of the library itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DoAllBenchmark {
+
+    @Param({"0", "1", "10", "1000", "1000000"})
+    public int size;
+
+    private Cleanups cleanups;
+
+    @Setup
+    public void setUp() {
+        cleanups = Cleanups.empty();
+        for (int i = 0; i < size; i++) {
+            cleanups.and(Closeables.NO_OP);
+        }
+    }
+
+    @Benchmark
+    public void doAll() throws IOException {
+        cleanups.doAll();
+    }
+
+    @Benchmark
+    public void doAllQuietly() {
+        cleanups.doAllQuietly();
+    }
+}
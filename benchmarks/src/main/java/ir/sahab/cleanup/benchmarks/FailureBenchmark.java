@@ -0,0 +1,51 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.Cleanups;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures doing the clean-up statements when all of them fail, like closing many dead connections at once. It
+ * includes the cost of logging the failures (to a file, see log4j.properties) and, if the exceptions are fresh,
+ * creating them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FailureBenchmark {
+
+    @Param({"1", "10", "1000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean freshException;
+
+    private Cleanups cleanups;
+
+    @Setup
+    public void setUp() {
+        cleanups = Cleanups.empty();
+        AutoCloseable failing = Closeables.failing(freshException);
+        for (int i = 0; i < size; i++) {
+            cleanups.and(failing);
+        }
+    }
+
+    @Benchmark
+    public void doAllQuietly() {
+        cleanups.doAllQuietly();
+    }
+}
@@ -0,0 +1,70 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.Cleanups;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares doing a large number of clean-up statements on virtual threads with doing them on a pool of platform
+ * threads. With {@code blockMicros} of zero it measures the scheduling overhead, otherwise each statement blocks
+ * like a blocking I/O operation. The virtual thread benchmark needs Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParallelBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"0", "1000"})
+    public long blockMicros;
+
+    @Param({"64"})
+    public int platformThreads;
+
+    private Cleanups cleanups;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        cleanups = Cleanups.empty();
+        AutoCloseable closeable = Closeables.blocking(blockMicros);
+        for (int i = 0; i < size; i++) {
+            cleanups.and(closeable);
+        }
+        executor = Executors.newFixedThreadPool(platformThreads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void platformThreads() throws IOException {
+        cleanups.doAllParallel(executor);
+    }
+
+    @Benchmark
+    public void virtualThreads() throws IOException {
+        cleanups.doAllOnVirtualThreads();
+    }
+}
@@ -0,0 +1,41 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.Cleanups;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-request scopes which create a new {@link Cleanups} for each request against the ones which
+ * reuse them by {@link Cleanups#acquire()} and {@link Cleanups#release()}, on many threads at once as in a
+ * server under load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PoolingBenchmark {
+
+    @Benchmark
+    public void fresh() {
+        Cleanups.empty().and(Closeables.NO_OP).and(Closeables.NO_OP).and(Closeables.NO_OP).doAllQuietly();
+    }
+
+    @Benchmark
+    public void pooled() {
+        Cleanups cleanups = Cleanups.acquire();
+        cleanups.and(Closeables.NO_OP).and(Closeables.NO_OP).and(Closeables.NO_OP).doAllQuietly();
+        cleanups.release();
+    }
+}
@@ -0,0 +1,69 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.Cleanups;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of building a {@link Cleanups}, which is paid on each request by the per-request scopes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegistrationBenchmark {
+
+    @Param({"1", "4", "8", "64"})
+    public int size;
+
+    private AutoCloseable[] array;
+    private List<AutoCloseable> list;
+
+    @Setup
+    public void setUp() {
+        array = new AutoCloseable[size];
+        Arrays.fill(array, Closeables.NO_OP);
+        list = Arrays.asList(array);
+    }
+
+    @Benchmark
+    public Cleanups varargs() {
+        return Cleanups.empty().and(array);
+    }
+
+    @Benchmark
+    public Cleanups collection() {
+        return Cleanups.empty().and(list);
+    }
+
+    @Benchmark
+    public Cleanups oneByOne() {
+        Cleanups cleanups = Cleanups.empty();
+        for (AutoCloseable closeable : array) {
+            cleanups.and(closeable);
+        }
+        return cleanups;
+    }
+
+    /**
+     * The typical usage in a per-request scope: a few statements which are registered and done at once.
+     */
+    @Benchmark
+    public void perRequestScope() {
+        Cleanups.of(Closeables.NO_OP, Closeables.NO_OP).and(Closeables.NO_OP).doAllQuietly();
+    }
+}
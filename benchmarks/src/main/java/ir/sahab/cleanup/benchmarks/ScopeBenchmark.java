@@ -0,0 +1,49 @@
+package ir.sahab.cleanup.benchmarks;
+
+import ir.sahab.cleanup.CleanupScope;
+import ir.sahab.cleanup.Cleanups;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a short {@link CleanupScope} against a {@link Cleanups} and a plain try-with-resources block, which
+ * is the lower bound of its cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScopeBenchmark {
+
+    @Benchmark
+    @SuppressWarnings("try")
+    public void tryWithResources() throws Exception {
+        try (AutoCloseable first = Closeables.NO_OP; AutoCloseable second = Closeables.NO_OP) {
+            // Only closing is measured.
+        }
+    }
+
+    @Benchmark
+    public void scope() throws IOException {
+        try (CleanupScope scope = CleanupScope.open()) {
+            scope.add(Closeables.NO_OP);
+            scope.add(Closeables.NO_OP);
+        }
+    }
+
+    @Benchmark
+    public void cleanups() throws IOException {
+        Cleanups.of(Closeables.NO_OP, Closeables.NO_OP).doAll();
+    }
+}
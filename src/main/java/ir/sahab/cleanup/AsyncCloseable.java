@@ -0,0 +1,39 @@
+package ir.sahab.cleanup;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A resource which can be closed without blocking the calling thread, like a channel or an asynchronous client
+ * whose close operation returns a future.
+ *
+ * <p>It can be added to a {@link Cleanups} like any other {@link AutoCloseable}, but it is closed differently:
+ * the {@code doAll} methods generally start closing it and go on, and wait for it later together with all the
+ * other asynchronous statements. So no thread is parked for each of them.
+ */
+@FunctionalInterface
+@SuppressWarnings("try") // Like AutoCloseable itself, close() may throw any exception.
+public interface AsyncCloseable extends AutoCloseable {
+
+    /**
+     * Starts closing the resource.
+     * @return a stage which is completed when the resource is closed, or completed exceptionally if it fails.
+     */
+    CompletionStage<Void> closeAsync();
+
+    /**
+     * Closes the resource and waits for it to finish, for the callers which do not know about asynchronous
+     * close.
+     */
+    @Override
+    default void close() throws Exception {
+        try {
+            closeAsync().toCompletableFuture().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
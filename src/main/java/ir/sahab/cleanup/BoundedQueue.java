@@ -0,0 +1,114 @@
+package ir.sahab.cleanup;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded multi-producer multi-consumer queue on a ring buffer, by the algorithm of Dmitry Vyukov. Each slot
+ * has a sequence number which tells whether it is ready to be written or read in the current lap, so both
+ * {@link #offer(Object)} and {@link #poll()} take a single compare-and-set when they are not contended, and
+ * neither of them takes a lock or allocates anything.
+ *
+ * <p>Unlike the queues of {@code java.util.concurrent}, a full queue is not waited on: {@link #offer(Object)}
+ * just returns false, and the caller decides what to do.
+ */
+final class BoundedQueue<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    /**
+     * @param capacity the minimum capacity of the queue, which is rounded up to a power of two.
+     */
+    BoundedQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds the given element to the queue if it is not full.
+     * @return false if the queue is full.
+     */
+    boolean offer(E element) {
+        long position = enqueuePosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // Publishes the element to the consumers.
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                // The slot is not read yet in the previous lap.
+                return false;
+            } else {
+                // Another producer took this position.
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the head of the queue, or returns null if it is empty.
+     */
+    E poll() {
+        long position = dequeuePosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    // Gives the slot back to the producers of the next lap.
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = dequeuePosition.get();
+            } else if (difference < 0) {
+                // The slot is not written yet in this lap.
+                return null;
+            } else {
+                // Another consumer took this position.
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of the elements in the queue, which may be stale as soon as it is returned.
+     */
+    int size() {
+        // The dequeue position is read first, so that the difference is never negative.
+        long dequeued = dequeuePosition.get();
+        long enqueued = enqueuePosition.get();
+        return (int) Math.min(enqueued - dequeued, mask + 1L);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,62 @@
+package ir.sahab.cleanup;
+
+import java.time.Duration;
+
+/**
+ * Receives the events of doing the statements of a {@link Cleanups}, e.g. to log them, count them in metrics, or
+ * trace them. It replaces the default logging of the failures, which is done by {@link #logging()}.
+ *
+ * <p>The methods are called by the threads which do the statements, so they may be called concurrently by the
+ * parallel methods, and they should be fast and must not throw. When no listener is set, no event is made at
+ * all.
+ *
+ * @see Cleanups#withListener(CleanupListener)
+ */
+public interface CleanupListener {
+
+    /**
+     * Returns the default listener, which logs the failures on a background thread, at most a limited number of
+     * them in each second, so that a clean-up with many failures is not slowed down by the logging backend.
+     */
+    static CleanupListener logging() {
+        return LoggingListener.INSTANCE;
+    }
+
+    /**
+     * Waits until the failures which are reported to the {@link #logging() default listener} are logged, or the
+     * given time passes. Its background thread is a daemon thread, which is stopped when the process exits, so
+     * a shutdown hook which does a clean-up by {@link Cleanups#doAll()} should call it at the end.
+     * {@link Cleanups#doAll(Duration)} and {@link ShutdownCleanups} do it by themselves.
+     */
+    static void flushLogging(Duration timeout) {
+        LoggingListener.INSTANCE.flush(Cleanups.toTimeoutNanos(timeout));
+    }
+
+    /**
+     * Called before running the given statement.
+     */
+    default void onStart(AutoCloseable statement) {
+    }
+
+    /**
+     * Called when the given statement is finished successfully.
+     * @param durationNanos the time it took, in nanoseconds.
+     */
+    default void onSuccess(AutoCloseable statement, long durationNanos) {
+    }
+
+    /**
+     * Called when the given statement fails, or when it is abandoned because of its timeout. In the latter case
+     * the failure is a {@link java.util.concurrent.TimeoutException}, and it is called by a shared closer thread.
+     */
+    default void onFailure(AutoCloseable statement, Exception failure) {
+    }
+
+    /**
+     * Called when all of the statements of an execution are tried.
+     * @param statements the number of the statements.
+     * @param failures the number of the failed, abandoned or skipped statements.
+     */
+    default void onComplete(int statements, int failures) {
+    }
+}
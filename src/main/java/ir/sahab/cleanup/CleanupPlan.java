@@ -0,0 +1,95 @@
+package ir.sahab.cleanup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * An immutable list of clean-up statements with their options and order, which is made by
+ * {@link Cleanups#freeze()}. Unlike a {@link Cleanups}, it is safe to be done by many threads at once, and each
+ * of its methods does all of the statements just like the same method of {@link Cleanups}.
+ */
+public final class CleanupPlan {
+
+    // A private copy which is never modified, so reading it from any thread is safe after the final field is
+    // published.
+    private final Cleanups cleanups;
+
+    CleanupPlan(Cleanups cleanups) {
+        this.cleanups = cleanups;
+    }
+
+    /**
+     * Returns the number of the statements of the plan.
+     */
+    public int size() {
+        return cleanups.size();
+    }
+
+    /**
+     * @see Cleanups#doAllQuietly()
+     */
+    public void doAllQuietly() {
+        cleanups.doAllQuietly();
+    }
+
+    /**
+     * @see Cleanups#doAll()
+     */
+    public void doAll() throws IOException {
+        cleanups.doAll();
+    }
+
+    /**
+     * @see Cleanups#doAllAndReport()
+     */
+    public CleanupReport doAllAndReport() {
+        return cleanups.doAllAndReport();
+    }
+
+    /**
+     * @see Cleanups#doAll(Duration)
+     */
+    public CleanupResult doAll(Duration deadline) {
+        return cleanups.doAll(deadline);
+    }
+
+    /**
+     * @see Cleanups#doAllParallel(int)
+     */
+    public void doAllParallel(int parallelism) throws IOException {
+        cleanups.doAllParallel(parallelism);
+    }
+
+    /**
+     * @see Cleanups#doAllParallel(Executor)
+     */
+    public void doAllParallel(Executor executor) throws IOException {
+        cleanups.doAllParallel(executor);
+    }
+
+    /**
+     * @see Cleanups#doAllAsync(Executor)
+     */
+    public CompletionStage<CleanupResult> doAllAsync(Executor executor) {
+        return cleanups.doAllAsync(executor);
+    }
+
+    /**
+     * @see Cleanups#doAllOnVirtualThreads()
+     */
+    public void doAllOnVirtualThreads() throws IOException {
+        cleanups.doAllOnVirtualThreads();
+    }
+
+    /**
+     * Returns the timings which are recorded by the executions of the plan, if timing is enabled on the object
+     * which it is made of. They are shared with that object.
+     * @see Cleanups#getTimings()
+     */
+    public Map<String, LatencyHistogram> getTimings() {
+        return cleanups.getTimings();
+    }
+}
@@ -0,0 +1,148 @@
+package ir.sahab.cleanup;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The outcome of each statement of a {@link Cleanups} which is done by {@link Cleanups#doAllAndReport()}, in the
+ * order in which they were done, for the callers which want to act on the failures one by one.
+ *
+ * <p>To keep a successful clean-up free, the entries are recorded only if some statement fails or timing is
+ * enabled by {@link Cleanups#withTiming()}. Otherwise, a shared successful report without any entries is
+ * returned.
+ */
+public final class CleanupReport {
+
+    public enum Outcome {
+        SUCCEEDED,
+        FAILED,
+        /**
+         * The statement did not finish in its timeout, and it may still be running.
+         */
+        ABANDONED
+    }
+
+    static final CleanupReport SUCCESSFUL = new CleanupReport(new AutoCloseable[0], false);
+
+    private AutoCloseable[] statements;
+    private Exception[] exceptions;
+    private long[] durations;
+    private int failures;
+
+    /**
+     * @param statements the statements in the order in which they are done, which may have nulls for the
+     *        removed ones until {@link #trim()} is called.
+     * @param timed whether the durations are recorded.
+     */
+    CleanupReport(AutoCloseable[] statements, boolean timed) {
+        this.statements = statements;
+        this.exceptions = new Exception[statements.length];
+        this.durations = timed ? new long[statements.length] : null;
+    }
+
+    void recordFailure(int position, Exception failure) {
+        if (exceptions[position] == null) {
+            failures++;
+        }
+        exceptions[position] = failure;
+    }
+
+    void recordDuration(int position, long nanos) {
+        durations[position] = nanos;
+    }
+
+    /**
+     * Removes the entries of the statements which were removed from the {@link Cleanups} before it is done.
+     */
+    void trim() {
+        int count = 0;
+        for (int i = 0; i < statements.length; i++) {
+            if (statements[i] != null) {
+                statements[count] = statements[i];
+                exceptions[count] = exceptions[i];
+                if (durations != null) {
+                    durations[count] = durations[i];
+                }
+                count++;
+            }
+        }
+        if (count < statements.length) {
+            statements = Arrays.copyOf(statements, count);
+            exceptions = Arrays.copyOf(exceptions, count);
+            durations = durations == null ? null : Arrays.copyOf(durations, count);
+        }
+    }
+
+    /**
+     * Returns the number of the recorded entries, which is zero if nothing failed and timing is not enabled.
+     */
+    public int size() {
+        return statements.length;
+    }
+
+    public AutoCloseable getStatement(int i) {
+        return statements[i];
+    }
+
+    public Outcome getOutcome(int i) {
+        if (exceptions[i] == null) {
+            return Outcome.SUCCEEDED;
+        }
+        return exceptions[i] instanceof Cleanups.AbandonedException ? Outcome.ABANDONED : Outcome.FAILED;
+    }
+
+    /**
+     * Returns the exception of the given entry, or null if it succeeded.
+     */
+    public Exception getException(int i) {
+        return exceptions[i];
+    }
+
+    /**
+     * Returns how long the given entry took in nanoseconds, or -1 if timing is not enabled. For an abandoned
+     * statement, it is the time until it was abandoned.
+     */
+    public long getDurationNanos(int i) {
+        return durations == null ? -1 : durations[i];
+    }
+
+    public int getFailureCount() {
+        return failures;
+    }
+
+    public boolean isSuccessful() {
+        return failures == 0;
+    }
+
+    /**
+     * Returns the exception of the first failed entry, or null if all of them succeeded.
+     */
+    Exception firstException() {
+        for (Exception e : exceptions) {
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the exception which {@link Cleanups#doAll()} would throw, or null if all statements succeeded.
+     * It contains the first failure as its cause; the next ones are only in this report.
+     */
+    public IOException toException() {
+        Exception firstException = firstException();
+        return firstException == null ? null : new IOException("Failed to clean-up all resources.", firstException);
+    }
+
+    public void throwIfFailed() throws IOException {
+        if (failures != 0) {
+            throw toException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CleanupReport{entries=" + size() + ", failures=" + failures + "}";
+    }
+}
@@ -0,0 +1,76 @@
+package ir.sahab.cleanup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The summary of doing the clean-up operations of a {@link Cleanups}, for the cases where the caller wants to
+ * decide what to do with the failures instead of getting them as an exception.
+ *
+ * <p>Besides the first failure, it tells which statements were not closed in time: the ones which were
+ * abandoned because they did not finish in their time, and the ones which were skipped because there was no
+ * time left to start them.
+ */
+public final class CleanupResult {
+
+    private final Exception firstException;
+    private final List<AutoCloseable> abandoned;
+    private final List<AutoCloseable> skipped;
+
+    CleanupResult(Exception firstException, List<AutoCloseable> abandoned, List<AutoCloseable> skipped) {
+        this.abandoned = Collections.unmodifiableList(abandoned);
+        this.skipped = Collections.unmodifiableList(skipped);
+        if (firstException == null && !skipped.isEmpty()) {
+            firstException = new TimeoutException(
+                    "No time was left to start " + skipped.size() + " clean-up statements.");
+        }
+        this.firstException = firstException;
+    }
+
+    /**
+     * Returns true if all statements are done successfully and in time.
+     */
+    public boolean isSuccessful() {
+        return firstException == null;
+    }
+
+    /**
+     * Returns the exception which {@link Cleanups#doAll()} would throw as the cause, or null if all statements
+     * are done successfully. If the only problem is the skipped statements, it is a {@link TimeoutException}.
+     */
+    public Exception getFirstException() {
+        return firstException;
+    }
+
+    /**
+     * Returns the statements which were started but did not finish in time. They may still be running on
+     * background threads.
+     */
+    public List<AutoCloseable> getAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Returns the statements which were not started at all, because there was no time left.
+     */
+    public List<AutoCloseable> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Throws the same exception as {@link Cleanups#doAll()}, if the clean-up was not successful.
+     */
+    public void throwIfFailed() throws IOException {
+        if (firstException != null) {
+            throw new IOException("Failed to clean-up all resources.", firstException);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CleanupResult{successful=" + isSuccessful() + ", abandoned=" + abandoned.size()
+                + ", skipped=" + skipped.size() + ", firstException=" + firstException + "}";
+    }
+}
@@ -0,0 +1,125 @@
+package ir.sahab.cleanup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A lightweight scope of clean-up statements for try-with-resources blocks, which are done when the block is
+ * exited:
+ * <pre>
+ *  try (CleanupScope scope = CleanupScope.open()) {
+ *      InputStream in = scope.add(openInput());
+ *      OutputStream out = scope.add(openOutput());
+ *      ...
+ *  }
+ * </pre>
+ *
+ * <p>The statements are done like {@link Cleanups#doAll()}, in the order of registration, and all of them are
+ * tried even if some of them fail. It is meant for the code which opens many short scopes: the first
+ * {@value #INLINE_CAPACITY} statements are kept in the fields of the scope itself, so a small scope is a
+ * single object, and only the larger ones allocate an array. Timeouts, declared orders and the other options of
+ * {@link Cleanups} are not supported.
+ *
+ * <p>It is not thread-safe, as it is meant to be used by a single block of code.
+ */
+public final class CleanupScope implements AutoCloseable {
+
+    private static final int INLINE_CAPACITY = 4;
+
+    private AutoCloseable first;
+    private AutoCloseable second;
+    private AutoCloseable third;
+    private AutoCloseable fourth;
+    private AutoCloseable[] overflow;
+    private int size;
+
+    private CleanupScope() {
+    }
+
+    public static CleanupScope open() {
+        return new CleanupScope();
+    }
+
+    /**
+     * Adds the given clean-up statement to the scope.
+     * @return the given statement, so that a resource can be created and added at once.
+     */
+    public <T extends AutoCloseable> T add(T closeable) {
+        Objects.requireNonNull(closeable, "closeable");
+        switch (size) {
+            case 0:
+                first = closeable;
+                break;
+            case 1:
+                second = closeable;
+                break;
+            case 2:
+                third = closeable;
+                break;
+            case 3:
+                fourth = closeable;
+                break;
+            default:
+                int index = size - INLINE_CAPACITY;
+                if (overflow == null) {
+                    overflow = new AutoCloseable[INLINE_CAPACITY];
+                } else if (index == overflow.length) {
+                    overflow = Arrays.copyOf(overflow, overflow.length * 2);
+                }
+                overflow[index] = closeable;
+        }
+        size++;
+        return closeable;
+    }
+
+    /**
+     * Does all statements of the scope and removes them, so closing it again does nothing.
+     * @throws IOException if any of the statements fails. Like {@link Cleanups#doAll()}, it contains the first
+     *         exception as its cause, and each failure is logged.
+     */
+    @Override
+    public void close() throws IOException {
+        if (size == 0) {
+            return;
+        }
+        int count = size;
+        size = 0;
+        Exception firstException = null;
+        for (int i = 0; i < count; i++) {
+            Exception e = Cleanups.close(remove(i));
+            if (firstException == null) {
+                firstException = e;
+            }
+        }
+        if (firstException != null) {
+            throw new IOException("Failed to clean-up all resources.", firstException);
+        }
+    }
+
+    private AutoCloseable remove(int index) {
+        AutoCloseable closeable;
+        switch (index) {
+            case 0:
+                closeable = first;
+                first = null;
+                break;
+            case 1:
+                closeable = second;
+                second = null;
+                break;
+            case 2:
+                closeable = third;
+                third = null;
+                break;
+            case 3:
+                closeable = fourth;
+                fourth = null;
+                break;
+            default:
+                closeable = overflow[index - INLINE_CAPACITY];
+                overflow[index - INLINE_CAPACITY] = null;
+        }
+        return closeable;
+    }
+}
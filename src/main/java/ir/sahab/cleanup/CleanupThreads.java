@@ -0,0 +1,76 @@
+package ir.sahab.cleanup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads which are shared between all {@link Cleanups} objects: a watchdog which keeps track of the
+ * timeouts, and a pool of closers which runs the statements that the calling thread may have to abandon.
+ * All of them are daemon threads and are created lazily, on the first use.
+ */
+final class CleanupThreads {
+
+    private CleanupThreads() {
+    }
+
+    static ThreadFactory threadFactory(String prefix) {
+        return new CleanupThreadFactory(prefix);
+    }
+
+    /**
+     * Runs the given action after the given delay, on the shared watchdog thread. The action should be short
+     * and must not block.
+     */
+    static ScheduledFuture<?> schedule(Runnable action, long delayNanos) {
+        return Watchdog.timer.schedule(action, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the shared pool which runs the statements that the caller may stop waiting for.
+     */
+    static ExecutorService closers() {
+        return Closers.pool;
+    }
+
+    private static class Watchdog {
+
+        static final ScheduledThreadPoolExecutor timer = createTimer();
+
+        private static ScheduledThreadPoolExecutor createTimer() {
+            ScheduledThreadPoolExecutor timer =
+                    new ScheduledThreadPoolExecutor(1, new CleanupThreadFactory("clean-up-watchdog-"));
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
+
+    private static class Closers {
+
+        static final ExecutorService pool = Executors.newCachedThreadPool(new CleanupThreadFactory("clean-up-"));
+    }
+
+    /**
+     * Creates daemon threads, so that an unfinished clean-up operation does not prevent the JVM from exiting.
+     */
+    private static class CleanupThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        CleanupThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,11 +1,27 @@
 package ir.sahab.cleanup;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,7 +50,77 @@ public class Cleanups {
 
     private static final Logger logger = LoggerFactory.getLogger(Cleanups.class);
 
-    private List<AutoCloseable> closeStatements = new ArrayList<>();
+    private static final AutoCloseable[] NO_STATEMENTS = new AutoCloseable[0];
+    private static final int INITIAL_CAPACITY = 8;
+    // The pooled objects which hold larger arrays are dropped, so that a rare large scope does not keep its
+    // memory for good.
+    private static final int MAX_POOLED_CAPACITY = 64;
+    private static final int POOL_SIZE = 4;
+    private static final ThreadLocal<Cleanups[]> pool = ThreadLocal.withInitial(() -> new Cleanups[POOL_SIZE]);
+    private static final AtomicIntegerFieldUpdater<Cleanups> EXECUTIONS =
+            AtomicIntegerFieldUpdater.newUpdater(Cleanups.class, "executions");
+
+    // A plain array rather than a list, so that neither registering nor doing the statements allocates
+    // anything but the array itself, which is needed for the short-lived per-request scopes.
+    private AutoCloseable[] closeStatements = NO_STATEMENTS;
+    private int size;
+    private DependencyGraph dependencies;
+    private long[] timeouts;
+    private long defaultTimeout;
+    private String[] labels;
+    private int[] phases;
+    private RetryPolicy[] retries;
+    private int currentPhase;
+    private ConcurrentMap<String, LatencyHistogram> timings;
+    private CleanupListener listener;
+    private Handle[] handles;
+    // The number of the slots which are emptied by unregistering and are not compacted yet.
+    private int removed;
+    private volatile int executions;
+    private LeakTracker leakTracker;
+    private boolean pooled;
+
+    public Cleanups() {
+        leakTracker = LeakDetection.track(this);
+    }
+
+    /**
+     * Creates an untracked copy of the remaining statements of the given object with their options, which is
+     * never modified after that.
+     */
+    private Cleanups(Cleanups source) {
+        int[] mapping = new int[source.size];
+        int count = 0;
+        for (int i = 0; i < source.size; i++) {
+            mapping[i] = source.closeStatements[i] == null ? -1 : count++;
+        }
+        closeStatements = new AutoCloseable[count];
+        for (int i = 0; i < source.size; i++) {
+            if (mapping[i] < 0) {
+                continue;
+            }
+            closeStatements[mapping[i]] = source.closeStatements[i];
+            if (source.timeouts != null && i < source.timeouts.length && source.timeouts[i] != 0) {
+                setTimeout(mapping[i], source.timeouts[i]);
+            }
+            if (source.labels != null && i < source.labels.length && source.labels[i] != null) {
+                setLabel(mapping[i], source.labels[i]);
+            }
+            if (source.phaseOf(i) != 0) {
+                setPhase(mapping[i], source.phaseOf(i));
+            }
+            if (source.retryOf(i) != null) {
+                setRetry(mapping[i], source.retryOf(i));
+            }
+        }
+        size = count;
+        defaultTimeout = source.defaultTimeout;
+        timings = source.timings;
+        listener = source.listener;
+        if (source.dependencies != null) {
+            dependencies = source.dependencies.compact(mapping, source.size);
+        }
+    }
 
     public static Cleanups empty() {
         return new Cleanups();
@@ -48,24 +134,638 @@ public class Cleanups {
         return new Cleanups().and(closeables);
     }
 
+    /**
+     * Returns an empty object like {@link #empty()}, which is reused from a small pool of the calling thread if
+     * possible. It is meant for the hot paths which create a scope for each request; the object should be given
+     * back by {@link #release()} when it is done, by the same thread.
+     */
+    public static Cleanups acquire() {
+        Cleanups[] free = pool.get();
+        for (int i = free.length - 1; i >= 0; i--) {
+            Cleanups cleanups = free[i];
+            if (cleanups != null) {
+                free[i] = null;
+                cleanups.pooled = false;
+                return cleanups;
+            }
+        }
+        return new Cleanups();
+    }
+
+    /**
+     * Resets this object and gives it back to the pool of the calling thread, to be reused by
+     * {@link #acquire()}. It must not be used anymore by the caller. If the pool is full, it is just dropped.
+     * @throws IllegalStateException if it is already released, or if it is being done.
+     */
+    public void release() {
+        if (pooled) {
+            throw new IllegalStateException("The Cleanups object is already released.");
+        }
+        reset();
+        if (closeStatements.length > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        Cleanups[] free = pool.get();
+        for (int i = 0; i < free.length; i++) {
+            if (free[i] == null) {
+                free[i] = this;
+                pooled = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all statements and options of this object, so that it is like a new empty one, but keeps its
+     * allocated capacity to be filled again without allocation. The handles of the removed statements are
+     * invalidated, and the timings are discarded.
+     * @throws IllegalStateException if one of the {@code doAll} methods is running.
+     */
+    public Cleanups reset() {
+        if (executions != 0) {
+            throw new IllegalStateException("The Cleanups object can not be reset while it is being done.");
+        }
+        Arrays.fill(closeStatements, 0, size, null);
+        if (timeouts != null) {
+            Arrays.fill(timeouts, 0);
+        }
+        if (labels != null) {
+            Arrays.fill(labels, null);
+        }
+        if (retries != null) {
+            Arrays.fill(retries, null);
+        }
+        if (handles != null) {
+            for (int i = 0; i < Math.min(size, handles.length); i++) {
+                if (handles[i] != null) {
+                    handles[i].index = -1;
+                    handles[i] = null;
+                }
+            }
+        }
+        size = 0;
+        removed = 0;
+        dependencies = null;
+        phases = null;
+        currentPhase = 0;
+        defaultTimeout = 0;
+        timings = null;
+        listener = null;
+        if (leakTracker != null) {
+            leakTracker.release();
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statements, skipping the nulls. Neither registering nor doing the statements
+     * allocates anything, except the array which holds them: it is allocated on the first statement with room
+     * for 8 of them, and grown when they are more. An object from {@link #acquire()} reuses its array, so a
+     * pooled per-request scope of up to 8 statements allocates nothing at all.
+     */
     public Cleanups and(AutoCloseable... closeables) {
-        return and(Arrays.asList(closeables));
+        ensureCapacity(size + closeables.length);
+        int start = size;
+        for (AutoCloseable closeable : closeables) {
+            if (closeable != null) {
+                closeStatements[size++] = closeable;
+            }
+        }
+        setCurrentPhase(start);
+        return this;
     }
 
     public Cleanups and(Collection<? extends AutoCloseable> closeables) {
-        closeables.stream().filter(Objects::nonNull).forEach(closeable -> closeStatements.add(closeable));
+        ensureCapacity(size + closeables.size());
+        if (closeables instanceof List && closeables instanceof RandomAccess) {
+            int start = size;
+            List<? extends AutoCloseable> list = (List<? extends AutoCloseable>) closeables;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) != null) {
+                    closeStatements[size++] = list.get(i);
+                }
+            }
+            setCurrentPhase(start);
+        } else {
+            for (AutoCloseable closeable : closeables) {
+                if (closeable != null) {
+                    add(closeable);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statement which is abandoned if it does not finish in the given time. An
+     * abandoned statement is reported as failed by a {@link TimeoutException}, and the remaining statements
+     * are done without waiting for it any more. Note that the abandoned statement is not interrupted, it just
+     * continues on a background daemon thread.
+     * @see #withDefaultTimeout(Duration)
+     * @see #and(AutoCloseable, StatementOptions)
+     */
+    public Cleanups and(AutoCloseable closeable, Duration timeout) {
+        long timeoutNanos = toTimeoutNanos(timeout);
+        if (closeable != null) {
+            setTimeout(add(closeable), timeoutNanos);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statement which is tried again by the given policy if it fails, like closing a
+     * connection whose server is briefly unavailable. The attempts after the first one are done on the shared
+     * closer threads, and no thread is kept waiting in between; the next statements are done meanwhile, unless
+     * they are declared to be closed after it. Only the failure of the last attempt is reported. A timeout of
+     * the statement, which is given by {@link #and(AutoCloseable, StatementOptions)} or
+     * {@link #withDefaultTimeout(Duration)}, covers all of its attempts, and no attempt is started after it is
+     * abandoned.
+     * @see RetryPolicy#attempts(int)
+     */
+    public Cleanups and(AutoCloseable closeable, RetryPolicy retry) {
+        Objects.requireNonNull(retry, "retry");
+        if (closeable != null) {
+            setRetry(add(closeable), retry);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statement with a label, which identifies it in the timings instead of its class.
+     * @see #withTiming()
+     * @see #and(AutoCloseable, StatementOptions)
+     */
+    public Cleanups and(String label, AutoCloseable closeable) {
+        Objects.requireNonNull(label, "label");
+        if (closeable != null) {
+            setLabel(add(closeable), label);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statement with all of the given options, e.g. a labelled statement with its own
+     * timeout, or a retried one whose attempts are bounded by a timeout.
+     */
+    public Cleanups and(AutoCloseable closeable, StatementOptions options) {
+        Objects.requireNonNull(options, "options");
+        if (closeable == null) {
+            return this;
+        }
+        int index = add(closeable);
+        if (options.label() != null) {
+            setLabel(index, options.label());
+        }
+        if (options.timeoutNanos() != 0) {
+            setTimeout(index, options.timeoutNanos());
+        }
+        if (options.retry() != null) {
+            setRetry(index, options.retry());
+        }
+        return this;
+    }
+
+    /**
+     * Enables recording the close duration of each statement, so that it can be found which ones make the
+     * clean-up slow. The durations are kept in a histogram for each label (or class name, for the statements
+     * without a label) and are available by {@link #getTimings()}. When it is not enabled, nothing is measured
+     * at all.
+     *
+     * <p>The duration of an abandoned statement is recorded whenever it finishes at last, if ever.
+     */
+    public Cleanups withTiming() {
+        if (timings == null) {
+            timings = new ConcurrentHashMap<>();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the histograms of the close durations by label, which are recorded by all executions of this
+     * object since {@link #withTiming()}; or an empty map if it is not enabled.
+     */
+    public Map<String, LatencyHistogram> getTimings() {
+        return timings == null ? Collections.emptyMap() : Collections.unmodifiableMap(timings);
+    }
+
+    /**
+     * Sets the timeout of the statements which are added without a timeout of their own. By default, there is
+     * no timeout and we wait for each statement as long as it takes.
+     * @see #and(AutoCloseable, Duration)
+     */
+    public Cleanups withDefaultTimeout(Duration timeout) {
+        defaultTimeout = toTimeoutNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Makes sure that the statements of this object are done, even if none of the {@code doAll} methods is
+     * called: if this object is garbage collected while some of its statements are not done yet, they are done
+     * on a background thread, and the leak is reported in the log. It is a safety net for the resources whose
+     * clean-up is forgotten on a rare path, and not a way to do the clean-up; the garbage collection may happen
+     * much later, or never.
+     *
+     * <p>The statements which are added after an execution of this object are covered too. The fallback does
+     * them in the order of registration, without their timeouts and declared order. The fallback keeps only the
+     * pending statements reachable, and nothing once they are done, handed off by {@link #freeze()} or removed
+     * by {@link #reset()}. But a pending statement which refers to the owner of this object (e.g. a lambda
+     * calling its methods) keeps it from being garbage collected, so the fallback never runs for it.
+     */
+    public Cleanups withGarbageCollectionFallback() {
+        if (leakTracker == null) {
+            leakTracker = LeakTracker.track(this, null);
+            if (size > 0) {
+                leakTracker.pending(closeStatements, 0);
+            }
+        }
+        leakTracker.enableFallback();
+        return this;
+    }
+
+    /**
+     * Sets the listener which is told about each statement when it is done, instead of logging the failures.
+     * When no listener is set, the failures are logged by {@link CleanupListener#logging()}, and the other
+     * events are not made at all.
+     */
+    public Cleanups withListener(CleanupListener listener) {
+        this.listener = Objects.requireNonNull(listener, "listener");
+        return this;
+    }
+
+    static long toTimeoutNanos(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Timeout should be positive: " + timeout);
+        }
+        return timeout.toNanos();
+    }
+
+    /**
+     * Adds the given clean-up statement and returns a handle which can remove it later. It is meant for the
+     * long-lived objects, like a process-wide registry of resources which are opened and closed many times:
+     * when a resource is closed by its owner, it should be removed so that it is neither closed again nor kept
+     * from being garbage collected.
+     *
+     * <p>Removing takes a constant time, and the storage is compacted (keeping the order of the remaining
+     * statements) when at least half of it is removed, so it shrinks back as the statements are removed. A
+     * statement may remove itself while it is being closed by one of the {@code doAll} methods; the compaction
+     * is then postponed until it is finished.
+     */
+    public Registration register(AutoCloseable closeable) {
+        Objects.requireNonNull(closeable, "closeable");
+        int index = add(closeable);
+        Handle handle = new Handle(index);
+        if (handles == null) {
+            handles = new Handle[Math.max(INITIAL_CAPACITY, index + 1)];
+        } else if (index >= handles.length) {
+            handles = Arrays.copyOf(handles, Math.max(index + 1, handles.length * 2));
+        }
+        handles[index] = handle;
+        return handle;
+    }
+
+    /**
+     * Puts the statements which are registered after this call in the given phase, until another phase is
+     * chosen. The statements are done phase by phase, in the order of the priorities of the phases, whatever
+     * the order of their registration is:
+     * <pre>
+     *  cleanups.inPhase(Phase.STOP_ACCEPTING).and(httpServer)
+     *          .inPhase(Phase.DRAIN).and(requestQueue)
+     *          .inPhase(Phase.RELEASE_STORAGE).and(dbConnection);
+     * </pre>
+     * Within a phase, the statements are done in the order of registration by {@link #doAll()}, and
+     * concurrently by {@link #doAllParallel(Executor)}. The statements which are registered before choosing
+     * any phase are in {@link Phase#DEFAULT}.
+     */
+    public Cleanups inPhase(Phase phase) {
+        currentPhase = phase.getPriority();
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statement which must be closed after all of the given predecessors.
+     * @param predecessors already registered statements of this object.
+     * @see #closeBefore(AutoCloseable, AutoCloseable)
+     */
+    public Cleanups andAfter(AutoCloseable closeable, AutoCloseable... predecessors) {
+        Objects.requireNonNull(closeable, "closeable");
+        for (AutoCloseable predecessor : predecessors) {
+            indexOf(predecessor);
+        }
+        add(closeable);
+        for (AutoCloseable predecessor : predecessors) {
+            closeBefore(predecessor, closeable);
+        }
+        return this;
+    }
+
+    /**
+     * Declares that {@code first} must be completely closed before closing {@code then} starts. Both of them
+     * should already be registered in this object, and they are looked up by identity. The order is respected
+     * by all of the {@code doAll} methods; the statements which are not ordered this way, are closed in the
+     * order of registration by {@link #doAll()} and concurrently by {@link #doAllParallel(Executor)}.
+     * @throws IllegalArgumentException if any of the statements is not registered, or if the new order
+     *         contradicts the previously declared ones (i.e., it makes a cycle) or the order of their phases.
+     */
+    public Cleanups closeBefore(AutoCloseable first, AutoCloseable then) {
+        int from = indexOf(first);
+        int to = indexOf(then);
+        if (phaseOf(from) > phaseOf(to)) {
+            throw new IllegalArgumentException("Closing a statement of phase " + phaseOf(from)
+                    + " before a statement of phase " + phaseOf(to) + " contradicts the order of the phases.");
+        }
+        if (dependencies == null) {
+            dependencies = new DependencyGraph();
+        }
+        dependencies.addEdge(from, to);
         return this;
     }
 
     /**
-     * Does all cleanup operations and if there is an exception on any operation just logs it.
+     * Adds the given statement with its options, as they are registered in a {@link ConcurrentCleanups}.
+     * @param label the label of the statement, or null.
+     * @param timeoutNanos the timeout of the statement, or zero.
+     * @param phase the priority of the phase of the statement.
+     */
+    void add(AutoCloseable closeable, String label, long timeoutNanos, int phase) {
+        int index = add(closeable);
+        if (label != null) {
+            setLabel(index, label);
+        }
+        if (timeoutNanos != 0) {
+            setTimeout(index, timeoutNanos);
+        }
+        if (phase != 0) {
+            setPhase(index, phase);
+        }
+    }
+
+    private void setTimeout(int index, long timeoutNanos) {
+        if (timeouts == null) {
+            timeouts = new long[Math.max(INITIAL_CAPACITY, index + 1)];
+        } else if (index >= timeouts.length) {
+            timeouts = Arrays.copyOf(timeouts, Math.max(index + 1, timeouts.length * 2));
+        }
+        timeouts[index] = timeoutNanos;
+    }
+
+    private void setLabel(int index, String label) {
+        if (labels == null) {
+            labels = new String[Math.max(INITIAL_CAPACITY, index + 1)];
+        } else if (index >= labels.length) {
+            labels = Arrays.copyOf(labels, Math.max(index + 1, labels.length * 2));
+        }
+        labels[index] = label;
+    }
+
+    /**
+     * Adds the given statement and returns its index.
+     */
+    private int add(AutoCloseable closeable) {
+        ensureCapacity(size + 1);
+        closeStatements[size] = closeable;
+        if (currentPhase != 0) {
+            setPhase(size, currentPhase);
+        }
+        return size++;
+    }
+
+    /**
+     * Puts the statements from the given index to the end in the current phase.
+     */
+    private void setCurrentPhase(int start) {
+        if (currentPhase != 0) {
+            for (int i = start; i < size; i++) {
+                setPhase(i, currentPhase);
+            }
+        }
+    }
+
+    private void setPhase(int index, int phase) {
+        if (phases == null) {
+            phases = new int[Math.max(INITIAL_CAPACITY, index + 1)];
+        } else if (index >= phases.length) {
+            phases = Arrays.copyOf(phases, Math.max(index + 1, phases.length * 2));
+        }
+        phases[index] = phase;
+    }
+
+    private void setRetry(int index, RetryPolicy retry) {
+        if (retries == null) {
+            retries = new RetryPolicy[Math.max(INITIAL_CAPACITY, index + 1)];
+        } else if (index >= retries.length) {
+            retries = Arrays.copyOf(retries, Math.max(index + 1, retries.length * 2));
+        }
+        retries[index] = retry;
+    }
+
+    /**
+     * Returns the retry policy of the statement at the given index, or null if it is not retried.
+     */
+    RetryPolicy retryOf(int index) {
+        return retries != null && index < retries.length ? retries[index] : null;
+    }
+
+    /**
+     * Returns the priority of the phase of the statement at the given index.
+     */
+    int phaseOf(int index) {
+        return phases != null && index < phases.length ? phases[index] : 0;
+    }
+
+    int[] phases() {
+        return phases;
+    }
+
+    /**
+     * Returns the order in which the statements should be done one by one, or null if it is the order of
+     * registration.
+     */
+    private int[] executionOrder() {
+        if (phases != null) {
+            return (dependencies == null ? new DependencyGraph() : dependencies).topologicalOrder(size, phases);
+        }
+        return dependencies == null ? null : dependencies.topologicalOrder(size);
+    }
+
+    /**
+     * Makes room for the statements which are about to be added, and has them tracked for leaks.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > closeStatements.length) {
+            closeStatements = Arrays.copyOf(closeStatements,
+                    Math.max(capacity, Math.max(INITIAL_CAPACITY, closeStatements.length * 2)));
+        }
+        if (leakTracker != null && capacity > size) {
+            leakTracker.pending(closeStatements, size);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the statement at the given index, or null if it is unregistered.
+     */
+    AutoCloseable closeStatement(int index) {
+        return closeStatements[index];
+    }
+
+    DependencyGraph dependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Returns the timeout of the statement at the given index in nanoseconds, or zero if it has no timeout.
+     */
+    long timeoutOf(int index) {
+        if (timeouts != null && index < timeouts.length && timeouts[index] != 0) {
+            return timeouts[index];
+        }
+        return defaultTimeout;
+    }
+
+    /**
+     * Returns the label of the statement at the given index, or its class name if it has no label.
+     */
+    String labelOf(int index, AutoCloseable closeStatement) {
+        if (labels != null && index < labels.length && labels[index] != null) {
+            return labels[index];
+        }
+        return closeStatement.getClass().getName();
+    }
+
+    /**
+     * Marks the start of an execution, during which the indexes of the statements must not change and the
+     * object must not be reset, and after which the statements are not pending for the garbage collection
+     * fallback anymore. Each call should be followed by a call of {@link #endExecution()}.
+     */
+    void beginExecution() {
+        if (leakTracker != null) {
+            leakTracker.release();
+        }
+        EXECUTIONS.incrementAndGet(this);
+    }
+
+    void endExecution() {
+        // Only the objects with registration handles have anything to compact.
+        if (EXECUTIONS.decrementAndGet(this) == 0 && handles != null) {
+            compactIfNeeded();
+        }
+    }
+
+    private synchronized void compactIfNeeded() {
+        if (removed >= INITIAL_CAPACITY && removed * 2 >= size) {
+            compact();
+        }
+    }
+
+    /**
+     * Removes the empty slots of the unregistered statements, keeping the order of the remaining ones, and
+     * shrinks the storage to fit them.
+     */
+    private void compact() {
+        int capacity = Math.max(INITIAL_CAPACITY, (size - removed) * 3 / 2);
+        AutoCloseable[] compactedStatements = new AutoCloseable[capacity];
+        long[] compactedTimeouts = timeouts == null ? null : new long[capacity];
+        String[] compactedLabels = labels == null ? null : new String[capacity];
+        int[] compactedPhases = phases == null ? null : new int[capacity];
+        RetryPolicy[] compactedRetries = retries == null ? null : new RetryPolicy[capacity];
+        Handle[] compactedHandles = new Handle[capacity];
+        int[] mapping = dependencies == null ? null : new int[size];
+        int done = leakTracker == null ? 0 : leakTracker.done();
+        int compactedDone = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == done) {
+                compactedDone = count;
+            }
+            if (closeStatements[i] == null) {
+                if (mapping != null) {
+                    mapping[i] = -1;
+                }
+                continue;
+            }
+            compactedStatements[count] = closeStatements[i];
+            if (compactedTimeouts != null && i < timeouts.length) {
+                compactedTimeouts[count] = timeouts[i];
+            }
+            if (compactedLabels != null && i < labels.length) {
+                compactedLabels[count] = labels[i];
+            }
+            if (compactedPhases != null && i < phases.length) {
+                compactedPhases[count] = phases[i];
+            }
+            if (compactedRetries != null && i < retries.length) {
+                compactedRetries[count] = retries[i];
+            }
+            if (i < handles.length && handles[i] != null) {
+                compactedHandles[count] = handles[i];
+                handles[i].index = count;
+            }
+            if (mapping != null) {
+                mapping[i] = count;
+            }
+            count++;
+        }
+        if (dependencies != null) {
+            dependencies = dependencies.compact(mapping, size);
+        }
+        closeStatements = compactedStatements;
+        if (leakTracker != null) {
+            leakTracker.update(compactedStatements, done >= size ? count : compactedDone);
+        }
+        timeouts = compactedTimeouts;
+        labels = compactedLabels;
+        phases = compactedPhases;
+        retries = compactedRetries;
+        handles = compactedHandles;
+        size = count;
+        removed = 0;
+    }
+
+    private int indexOf(AutoCloseable closeable) {
+        for (int i = 0; i < size; i++) {
+            if (closeStatements[i] == closeable) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("The clean-up statement is not registered: " + closeable);
+    }
+
+    /**
+     * Returns an immutable plan of the current statements of this object with their options, which can be done
+     * many times and from many threads at once, without copying anything. It is meant for the clean-ups which
+     * are built once and done repeatedly, like the clean-up of each batch of a stream processor. Changes of this
+     * object after this call do not affect the plan.
+     *
+     * <p>The current statements are handed off to the plan, which is not tracked for leaks: they are not
+     * reported as leaked or done by the {@link #withGarbageCollectionFallback() fallback} of this object when it
+     * is garbage collected, as the plan is still responsible for them.
+     */
+    public CleanupPlan freeze() {
+        CleanupPlan plan = new CleanupPlan(new Cleanups(this));
+        if (leakTracker != null) {
+            leakTracker.release();
+        }
+        return plan;
+    }
+
+    /**
+     * Does all cleanup operations and if there is an exception on any operation just logs it. Each failure is
+     * reported to the listener like in {@link #doAll()}, and only their number is logged in addition.
      * @see {@link #doAll()}
      */
     public void doAllQuietly() {
+        beginExecution();
+        CleanupReport report;
         try {
-            doAll();
-        } catch (IOException e) {
-            logger.warn("Failed to clean-up all of the given operations.", e);
+            report = doAllInOrder(true);
+        } finally {
+            endExecution();
+        }
+        if (report != null && !report.isSuccessful()) {
+            logger.warn("Failed to run {} of the clean-up statements.", report.getFailureCount());
         }
     }
 
@@ -73,6 +773,11 @@ public class Cleanups {
      * Does all cleanup operations and if there is an exception on any operation, throws the first
      * exception after trying for all operations. We choose the first exception to throw because it
      * is the most important ones and may be the reason for the next exceptions.
+     * If a statement does not finish in its timeout, it is abandoned and counted as failed.
+     *
+     * <p>An {@link AsyncCloseable} is just started in its turn, and the next statements are done without
+     * waiting for it, unless they are declared to be closed after it. All of the started ones are awaited
+     * together at the end.
      * @throws IOException if there is an exception on any operation. It contains the original exception
      *         as its cause. We choose to throw an exception of type {@link IOException}, because one of
      *         the main use cases of this class is in implementation of {@code AutoCloseable#close()} methods
@@ -80,21 +785,642 @@ public class Cleanups {
      *         downstream of the chain.
      */
     public void doAll() throws IOException {
-        boolean allSucceeded = true;
+        beginExecution();
+        CleanupReport report;
+        try {
+            report = doAllInOrder(true);
+        } finally {
+            endExecution();
+        }
+        if (report != null) {
+            report.throwIfFailed();
+        }
+    }
+
+    /**
+     * Does all cleanup operations like {@link #doAll()}, but returns the outcome of each of them instead of
+     * throwing the first failure. The failures are not logged one by one either, but in a single summary of
+     * their number and the first one, so that a clean-up with many failures (e.g. closing thousands of broken
+     * connections) is not slowed down by logging them; the caller should act on them by the report.
+     * @return the report of the clean-up, which has the entries only if some statement failed or timing is
+     *         enabled.
+     */
+    public CleanupReport doAllAndReport() {
+        beginExecution();
+        CleanupReport report;
+        try {
+            report = doAllInOrder(false);
+        } finally {
+            endExecution();
+        }
+        if (report == null) {
+            return CleanupReport.SUCCESSFUL;
+        }
+        if (!report.isSuccessful()) {
+            // Only the first failure, as a summary of thousands of stack traces would be as slow as logging them.
+            logger.error("Failed to run {} of the clean-up statements; the first failure is:",
+                    report.getFailureCount(), report.firstException());
+        }
+        return report;
+    }
+
+    /**
+     * Does the statements one by one in their order, and returns their report if some of them failed or timing
+     * is enabled, otherwise null.
+     * @param log whether each failure is logged.
+     */
+    private CleanupReport doAllInOrder(boolean log) {
+        CleanupListener failures = failureListener(log);
+        Object event = FlightRecorder.beginDoAll();
+        int[] order = executionOrder();
+        CleanupReport report = timings == null ? null : newReport(order);
+        CompletableFuture<?>[] started = null;
+        int phaseStart = 0;
+        for (int i = 0; i < size; i++) {
+            int index = order == null ? i : order[i];
+            AutoCloseable closeStatement = closeStatements[index];
+            if (phases != null && i > 0 && phaseOf(index) != phaseOf(order[i - 1])) {
+                // The asynchronous statements of a phase must be finished before the next phase starts.
+                for (int j = phaseStart; started != null && j < i; j++) {
+                    if (started[order[j]] != null) {
+                        started[order[j]].join();
+                    }
+                }
+                phaseStart = i;
+            }
+            if (started != null && dependencies != null) {
+                for (int j = 0; j < dependencies.predecessorCount(index); j++) {
+                    CompletableFuture<?> predecessor = started[dependencies.predecessor(index, j)];
+                    if (predecessor != null) {
+                        predecessor.join();
+                    }
+                }
+            }
+            if (isAsync(index)) {
+                if (started == null) {
+                    started = new CompletableFuture<?>[size];
+                }
+                CompletableFuture<Exception> result = startClose(index, timeoutOf(index), failures);
+                if (timings != null) {
+                    long start = System.nanoTime();
+                    int position = i;
+                    CleanupReport timed = report;
+                    result = result.whenComplete(
+                            (failure, ignored) -> timed.recordDuration(position, System.nanoTime() - start));
+                }
+                started[index] = result;
+                continue;
+            }
+            long start = timings == null ? 0 : System.nanoTime();
+            Exception e = closeWithin(index, timeoutOf(index), failures);
+            if (timings != null) {
+                report.recordDuration(i, System.nanoTime() - start);
+            }
+            if (e != null) {
+                if (report == null) {
+                    report = newReport(order);
+                }
+                report.recordFailure(i, e);
+            }
+        }
+        if (started != null) {
+            // The asynchronous statements are awaited together, and their failures take place in the order in
+            // which they are started.
+            for (int i = 0; i < size; i++) {
+                CompletableFuture<?> result = started[order == null ? i : order[i]];
+                Exception e = result == null ? null : (Exception) result.join();
+                if (e != null) {
+                    if (report == null) {
+                        report = newReport(order);
+                    }
+                    report.recordFailure(i, e);
+                }
+            }
+        }
+        int failureCount = report == null ? 0 : report.getFailureCount();
+        FlightRecorder.endDoAll(event, FlightRecorder.SEQUENTIAL, size, failureCount);
+        if (report != null) {
+            report.trim();
+        }
+        if (listener != null) {
+            listener.onComplete(report == null ? size - removed : report.size(), failureCount);
+        }
+        return report;
+    }
+
+    /**
+     * Creates an empty report of the statements in the given order, which is allocated only if it is needed.
+     */
+    private CleanupReport newReport(int[] order) {
+        AutoCloseable[] statements = new AutoCloseable[size];
+        for (int i = 0; i < size; i++) {
+            statements[i] = closeStatements[order == null ? i : order[i]];
+        }
+        return new CleanupReport(statements, timings != null);
+    }
+
+    /**
+     * Does all cleanup operations like {@link #doAll()}, but within the given deadline. It is meant for the
+     * cases where the process has a limited time to shut down, and it is better to leave some resources than
+     * to be killed in the middle of closing them.
+     *
+     * <p>Each statement may take an equal share of the time which is left for the remaining statements (or its
+     * own timeout, if it is shorter), so a slow statement can not use up the time of the others; the time
+     * which is not used by a statement is shared between the next ones. A statement which does not finish in
+     * its share is abandoned, and when the deadline is passed, the remaining statements are skipped. To keep
+     * the time of each statement apart, an {@link AsyncCloseable} is also awaited in its turn here.
+     *
+     * <p>As it is often the last thing before the process exits, the failures which are logged by the default
+     * listener are {@link CleanupListener#flushLogging(Duration) flushed} before it returns, within the deadline.
+     * @return the summary of the clean-up, which tells what is not closed in time. Failures are not thrown,
+     *         but they can be thrown by {@link CleanupResult#throwIfFailed()}.
+     */
+    public CleanupResult doAll(Duration deadline) {
+        long deadlineNanos = System.nanoTime() + toTimeoutNanos(deadline);
+        beginExecution();
+        try {
+            return doAllBefore(deadline, deadlineNanos);
+        } finally {
+            endExecution();
+        }
+    }
+
+    private CleanupResult doAllBefore(Duration deadline, long deadlineNanos) {
+        Object event = FlightRecorder.beginDoAll();
+        int[] order = executionOrder();
         Exception firstException = null;
-        for (AutoCloseable closeStatement : closeStatements) {
-            try {
-                closeStatement.close();
-            } catch (Exception e) {
-                logger.error("Failed to run clean-up statement.", e);
+        int failures = 0;
+        List<AutoCloseable> abandoned = new ArrayList<>();
+        List<AutoCloseable> skipped = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int index = order == null ? i : order[i];
+            AutoCloseable closeStatement = closeStatements[index];
+            if (closeStatement == null) {
+                continue;
+            }
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                skipped.add(closeStatement);
+                continue;
+            }
+            long share = remaining / (size - i);
+            long timeout = timeoutOf(index);
+            Exception e = closeWithin(index, timeout == 0 ? share : Math.min(timeout, share), failureListener(true));
+            if (e instanceof AbandonedException) {
+                abandoned.add(closeStatement);
+            }
+            if (e != null) {
+                failures++;
                 if (firstException == null) {
                     firstException = e;
                 }
-                allSucceeded = false;
             }
         }
-        if (!allSucceeded) {
-            throw new IOException("Failed to clean-up all resources.", firstException);
+        FlightRecorder.endDoAll(event, FlightRecorder.DEADLINE, size, failures + skipped.size());
+        if (listener != null) {
+            listener.onComplete(size - removed, failures + skipped.size());
+        }
+        if (!skipped.isEmpty()) {
+            logger.error("The clean-up deadline of {} passed before starting {} statements.", deadline,
+                    skipped.size());
+        }
+        if (failures != 0 && listener == null) {
+            LoggingListener.INSTANCE.flush(Math.max(0, deadlineNanos - System.nanoTime()));
+        }
+        return new CleanupResult(firstException, abandoned, skipped);
+    }
+
+    /**
+     * Does all cleanup operations concurrently, using a fixed pool of {@code parallelism} threads which
+     * is created for this call and shut down before it returns.
+     * @throws IOException under the same conditions as {@link #doAll()}.
+     * @see #doAllParallel(Executor)
+     */
+    public void doAllParallel(int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be positive: " + parallelism);
+        }
+        if (size == 0) {
+            // Nothing is run, but the execution is still reported to the listener like the other modes.
+            doAllParallel(Runnable::run);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, size), CleanupThreads.threadFactory("clean-up-parallel-"));
+        try {
+            doAllParallel(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Does all cleanup operations concurrently on the given executor, and waits until all of them are
+     * finished. Like {@link #doAll()}, all operations are tried even if some of them fail. If the executor
+     * rejects an operation, it is run on a shared closer thread instead.
+     *
+     * <p>The order declared by {@link #closeBefore(AutoCloseable, AutoCloseable)} is respected: each operation
+     * is started as soon as all operations which must be closed before it are finished (successfully or not).
+     *
+     * <p>An operation which does not finish in its timeout is abandoned by a shared watchdog: it is reported as
+     * failed, and its successors are started without waiting for it any more. It still occupies its thread
+     * of the executor, though.
+     *
+     * <p>Because the operations may finish in any order, the reported exception is the one belonging to
+     * the earliest registered operation that failed, not the one which failed first in time.
+     * @throws IOException under the same conditions as {@link #doAll()}.
+     */
+    public void doAllParallel(Executor executor) throws IOException {
+        Objects.requireNonNull(executor, "executor");
+        new ParallelExecution(this, executor).start().join().throwIfFailed();
+    }
+
+    /**
+     * Does all cleanup operations like {@link #doAllParallel(Executor)}, but returns immediately instead of
+     * waiting for them. It is meant for the callers which must not block, like event loop threads.
+     *
+     * <p>The statements which are not ordered by {@link #closeBefore(AutoCloseable, AutoCloseable)} may run
+     * concurrently, if the executor has more than one thread. Given a single threaded executor, they run in
+     * the order of registration, just like {@link #doAll()}.
+     * @return a stage which is completed when all statements are tried. It never completes exceptionally; the
+     *         failures are reported by the result. Note that the non-async dependent stages run on the thread
+     *         which finishes the last statement (or a shared closer thread, if it is abandoned).
+     */
+    public CompletionStage<CleanupResult> doAllAsync(Executor executor) {
+        Objects.requireNonNull(executor, "executor");
+        return new ParallelExecution(this, executor).start();
+    }
+
+    /**
+     * Does all cleanup operations concurrently like {@link #doAllParallel(Executor)}, running each of them on a
+     * virtual thread of its own. As most clean-up operations are blocking I/O, this lets a large number of
+     * them wait at the same time without dedicating a platform thread to each one.
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads (i.e., it is older
+     *         than Java 21). See {@link #isVirtualThreadSupported()}.
+     * @throws IOException under the same conditions as {@link #doAll()}.
+     */
+    public void doAllOnVirtualThreads() throws IOException {
+        doAllParallel(VirtualThreads.executor());
+    }
+
+    /**
+     * Returns true if the runtime supports {@link #doAllOnVirtualThreads()}.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+
+    /**
+     * Runs the statement at the given index and returns its exception, or null if it succeeded. If the timeout
+     * is not zero, the statement is run on a shared closer thread and is abandoned when the timeout passes.
+     * @param failures the listener of the failures, or null if they should not be reported.
+     */
+    private Exception closeWithin(int index, long timeout, CleanupListener failures) {
+        AutoCloseable closeStatement = closeStatements[index];
+        if (closeStatement == null) {
+            return null;
+        }
+        if (isAsync(index)) {
+            return startClose(index, timeout, failures).join();
+        }
+        if (timeout == 0) {
+            return closeNow(index, failures);
+        }
+        // Resolved before starting, as the slot may be reused once the statement is abandoned.
+        String label = labelOf(index, closeStatement);
+        StatementResult result = new StatementResult();
+        ScheduledFuture<?> timer = expireAfter(result, closeStatement, timeout, failures);
+        CleanupThreads.closers().execute(() -> result.finish(closeStatement,
+                closeNow(closeStatement, label, FlightRecorder.beginClose(), null), failures, timer));
+        return result.join();
+    }
+
+    /**
+     * Returns true if the statement at the given index should be started by
+     * {@link #startClose(int, long)} rather than run by {@link #closeNow(int)}: an {@link AsyncCloseable}, or
+     * a statement which may be retried later.
+     */
+    boolean isAsync(int index) {
+        return closeStatements[index] instanceof AsyncCloseable || retryOf(index) != null;
+    }
+
+    /**
+     * Runs the statement at the given index on the current thread, and returns its exception or null if it
+     * succeeded.
+     */
+    Exception closeNow(int index) {
+        return closeNow(index, failureListener(true));
+    }
+
+    /**
+     * @param failures the listener of the failures, or null if they should not be reported.
+     */
+    Exception closeNow(int index, CleanupListener failures) {
+        // Captured once, as the statement may unregister itself while it is being closed.
+        AutoCloseable closeStatement = closeStatements[index];
+        if (closeStatement == null) {
+            return null;
+        }
+        Object event = FlightRecorder.beginClose();
+        if (timings == null && event == null && listener == null) {
+            Exception failure = invoke(closeStatement);
+            if (failure != null && failures != null) {
+                failures.onFailure(closeStatement, failure);
+            }
+            return failure;
+        }
+        return closeNow(closeStatement, labelOf(index, closeStatement), event, failures);
+    }
+
+    /**
+     * Runs the given statement with its timing, event and listener.
+     * @param event the started event of the statement, or null if it is not enabled.
+     */
+    private Exception closeNow(AutoCloseable closeStatement, String label, Object event,
+            CleanupListener failures) {
+        if (listener != null) {
+            listener.onStart(closeStatement);
+        }
+        long start = System.nanoTime();
+        Exception failure = invoke(closeStatement);
+        long duration = System.nanoTime() - start;
+        if (timings != null) {
+            record(label, duration);
+        }
+        if (event != null) {
+            FlightRecorder.endClose(event, closeStatement, label, failure);
+        }
+        finished(closeStatement, failure, duration, failures);
+        return failure;
+    }
+
+    /**
+     * Starts closing the statement at the given index without waiting for it, which is either an
+     * {@link AsyncCloseable} or a statement with a {@link RetryPolicy}.
+     * @param timeout the time after which the statement is abandoned in nanoseconds, or zero for no timeout.
+     * @return the future exception of the statement, or null if it succeeds.
+     */
+    CompletableFuture<Exception> startClose(int index, long timeout) {
+        return startClose(index, timeout, failureListener(true));
+    }
+
+    private CompletableFuture<Exception> startClose(int index, long timeout, CleanupListener failures) {
+        AutoCloseable closeStatement = closeStatements[index];
+        // Resolved before starting, as the statement may unregister itself before it is finished.
+        String label = labelOf(index, closeStatement);
+        RetryPolicy retry = retryOf(index);
+        StatementResult result = new StatementResult();
+        ScheduledFuture<?> timer = timeout == 0 ? null : expireAfter(result, closeStatement, timeout, failures);
+        if (retry == null) {
+            closeAsync((AsyncCloseable) closeStatement, label, null).thenAccept(
+                    failure -> result.finish(closeStatement, failure, failures, timer));
+        } else if (timer == null) {
+            attempt(closeStatement, label, retry, 1, result, null, failures);
+        } else {
+            // Not on the current thread, as the first attempt should not be waited for beyond the timeout too.
+            CleanupThreads.closers().execute(() -> attempt(closeStatement, label, retry, 1, result, timer, failures));
+        }
+        return result;
+    }
+
+    /**
+     * Does one attempt of a statement with a retry policy, and schedules the next one if it fails. The
+     * attempts are run on the shared closer threads, and no thread waits for them in between.
+     */
+    private void attempt(AutoCloseable closeStatement, String label, RetryPolicy retry, int attempt,
+            StatementResult result, ScheduledFuture<?> timer, CleanupListener failures) {
+        if (result.isDone()) {
+            // Abandoned while waiting for this attempt.
+            return;
+        }
+        CompletableFuture<Exception> tried = closeStatement instanceof AsyncCloseable
+                ? closeAsync((AsyncCloseable) closeStatement, label, null)
+                : CompletableFuture.completedFuture(
+                        closeNow(closeStatement, label, FlightRecorder.beginClose(), null));
+        tried.thenAccept(failure -> {
+            if (failure != null && !result.isDone() && retry.shouldRetry(attempt, failure)) {
+                long delay = retry.delayNanos(attempt);
+                logger.debug("Clean-up statement failed in attempt {} of {}, retrying it in {}.", attempt,
+                        retry.getMaxAttempts(), Duration.ofNanos(delay), failure);
+                CleanupThreads.schedule(() -> CleanupThreads.closers().execute(
+                        () -> attempt(closeStatement, label, retry, attempt + 1, result, timer, failures)), delay);
+                return;
+            }
+            result.finish(closeStatement, failure, failures, timer);
+        });
+    }
+
+    /**
+     * Starts closing the given {@link AsyncCloseable}, with its timing, event and listener.
+     * @return the future exception of the statement, or null if it succeeds.
+     */
+    private CompletableFuture<Exception> closeAsync(AsyncCloseable closeStatement, String label,
+            CleanupListener failures) {
+        CompletableFuture<Exception> result = new CompletableFuture<>();
+        if (listener != null) {
+            listener.onStart(closeStatement);
+        }
+        long start = System.nanoTime();
+        Object event = FlightRecorder.beginClose();
+        CompletionStage<Void> closing;
+        try {
+            closing = Objects.requireNonNull(closeStatement.closeAsync(), "closeAsync() returned null");
+        } catch (Exception e) {
+            FlightRecorder.endClose(event, closeStatement, label, e);
+            finished(closeStatement, e, System.nanoTime() - start, failures);
+            result.complete(e);
+            return result;
+        }
+        closing.whenComplete((ignored, throwable) -> {
+            long duration = System.nanoTime() - start;
+            if (timings != null) {
+                record(label, duration);
+            }
+            Exception failure = throwable == null ? null : unwrap(throwable);
+            if (event != null) {
+                FlightRecorder.endClose(event, closeStatement, label, failure);
+            }
+            finished(closeStatement, failure, duration, failures);
+            result.complete(failure);
+        });
+        return result;
+    }
+
+    /**
+     * Reports the given finished statement to the listeners.
+     */
+    private void finished(AutoCloseable closeStatement, Exception failure, long duration,
+            CleanupListener failures) {
+        if (failure == null) {
+            if (listener != null) {
+                listener.onSuccess(closeStatement, duration);
+            }
+        } else if (failures != null) {
+            failures.onFailure(closeStatement, failure);
+        }
+    }
+
+    /**
+     * Returns the listener which the failures are reported to: the one which is set on this object, or the
+     * default logging one if they should be logged, or null.
+     */
+    CleanupListener failureListener(boolean log) {
+        if (listener != null) {
+            return listener;
+        }
+        return log ? LoggingListener.INSTANCE : null;
+    }
+
+    /**
+     * Returns the listener which is set on this object, or null.
+     */
+    CleanupListener listener() {
+        return listener;
+    }
+
+    private void record(String label, long nanos) {
+        // Read once, as an abandoned statement may finish after this object is reset.
+        ConcurrentMap<String, LatencyHistogram> timings = this.timings;
+        if (timings == null) {
+            return;
+        }
+        LatencyHistogram histogram = timings.get(label);
+        if (histogram == null) {
+            histogram = timings.computeIfAbsent(label, key -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    private static Exception unwrap(Throwable throwable) {
+        if ((throwable instanceof CompletionException || throwable instanceof ExecutionException)
+                && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable instanceof Exception ? (Exception) throwable : new ExecutionException(throwable);
+    }
+
+    /**
+     * Completes the given result of running a statement with a {@link TimeoutException}, if it is not completed
+     * in the given time by the statement itself.
+     *
+     * <p>The result is completed on a closer thread rather than on the watchdog, as completing it runs the
+     * listener and the dependent stages, which may start the next statements: a slow one would delay the
+     * timeouts of all other objects.
+     */
+    static ScheduledFuture<?> expireAfter(StatementResult result, AutoCloseable closeStatement,
+            long timeoutNanos, CleanupListener failures) {
+        return CleanupThreads.schedule(() -> CleanupThreads.closers().execute(() -> result.finish(closeStatement,
+                new AbandonedException("Clean-up statement did not finish in " + Duration.ofNanos(timeoutNanos)
+                        + ": " + closeStatement), failures, null)), timeoutNanos);
+    }
+
+    /**
+     * Runs the given clean-up statement and returns its exception, or null if it succeeded. The failure is
+     * logged by the default listener.
+     */
+    static Exception close(AutoCloseable closeStatement) {
+        Exception e = invoke(closeStatement);
+        if (e != null) {
+            LoggingListener.INSTANCE.onFailure(closeStatement, e);
+        }
+        return e;
+    }
+
+    /**
+     * Runs the given clean-up statement without logging its failure, and returns its exception or null.
+     */
+    private static Exception invoke(AutoCloseable closeStatement) {
+        try {
+            closeStatement.close();
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    /**
+     * The handle of a statement which knows its current index, and is updated when the storage is compacted.
+     */
+    private class Handle implements Registration {
+
+        private int index;
+
+        Handle(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean unregister() {
+            // Locked, as the statements which are run in parallel may unregister themselves at the same time.
+            synchronized (Cleanups.this) {
+                if (index < 0) {
+                    return false;
+                }
+                closeStatements[index] = null;
+                handles[index] = null;
+                if (timeouts != null && index < timeouts.length) {
+                    timeouts[index] = 0;
+                }
+                if (labels != null && index < labels.length) {
+                    labels[index] = null;
+                }
+                if (retries != null && index < retries.length) {
+                    retries[index] = null;
+                }
+                index = -1;
+                removed++;
+                if (executions == 0) {
+                    compactIfNeeded();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The future exception of a statement which is abandoned if it does not finish in its timeout, or null if it
+     * succeeds. The statement and the watchdog race to finish it, and only the first one reports its failure
+     * and completes it, in this order: so an abandoned statement which fails later is reported once, and the
+     * failure is reported before the waiters of the result go on.
+     */
+    static final class StatementResult extends CompletableFuture<Exception> {
+
+        private static final AtomicIntegerFieldUpdater<StatementResult> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(StatementResult.class, "claimed");
+
+        private volatile int claimed;
+
+        /**
+         * Reports the given failure, if any, and completes this result with it, unless it is already finished.
+         * @param failures the listener of the failures, or null if they should not be reported.
+         * @param timer the timer which should be cancelled if the statement finishes first, or null.
+         */
+        void finish(AutoCloseable closeStatement, Exception failure, CleanupListener failures,
+                ScheduledFuture<?> timer) {
+            if (!CLAIMED.compareAndSet(this, 0, 1)) {
+                return;
+            }
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            if (failure != null && failures != null) {
+                failures.onFailure(closeStatement, failure);
+            }
+            complete(failure);
+        }
+    }
+
+    /**
+     * The failure of a statement which is abandoned because it did not finish in time. It is distinguished
+     * from a {@link TimeoutException} thrown by the statement itself.
+     */
+    static final class AbandonedException extends TimeoutException {
+
+        private static final long serialVersionUID = 1L;
+
+        AbandonedException(String message) {
+            super(message);
         }
     }
 }
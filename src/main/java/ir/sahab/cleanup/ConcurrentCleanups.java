@@ -0,0 +1,204 @@
+package ir.sahab.cleanup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A variant of {@link Cleanups} which many threads can register their clean-up statements into at the same
+ * time, like an application-wide registry which is filled by the worker threads at start-up and by lazy
+ * initializations.
+ *
+ * <p>Registration is lock-free: the statements are appended to a multi-producer single-consumer linked queue by
+ * a single atomic exchange, with no retry, so the registering threads never block or spin on each other. The
+ * statements of each thread keep their order, and the ones which are registered one after another (in the
+ * sense of happens-before) keep their order too, as the close order may depend on it.
+ *
+ * <p>Doing the statements is different from {@link Cleanups}, though: each {@code doAll} method takes a
+ * snapshot of the statements which are registered up to its start, removes them from this object, and does
+ * them like a {@link Cleanups}. The statements which are registered while it is running are not done by it and
+ * are kept for the next one. So each statement is done exactly once. The {@code doAll} methods may be called
+ * by any thread, but they take their snapshots one at a time.
+ */
+public final class ConcurrentCleanups {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentCleanups.class);
+
+    private final AtomicReference<Node> tail;
+    // The last drained node, which is only accessed by the threads holding the lock of this object.
+    private Node head;
+    private volatile long defaultTimeout;
+    // Set when nobody is going to do the statements later, e.g. the registry of a JVM which is shutting down.
+    private volatile boolean closeInline;
+
+    private ConcurrentCleanups() {
+        head = new Node(null, null, 0, 0);
+        tail = new AtomicReference<>(head);
+    }
+
+    public static ConcurrentCleanups empty() {
+        return new ConcurrentCleanups();
+    }
+
+    public ConcurrentCleanups and(AutoCloseable... closeables) {
+        for (AutoCloseable closeable : closeables) {
+            if (closeable != null) {
+                append(new Node(closeable, null, 0, 0));
+            }
+        }
+        return this;
+    }
+
+    public ConcurrentCleanups and(Collection<? extends AutoCloseable> closeables) {
+        for (AutoCloseable closeable : closeables) {
+            if (closeable != null) {
+                append(new Node(closeable, null, 0, 0));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @see Cleanups#and(AutoCloseable, Duration)
+     */
+    public ConcurrentCleanups and(AutoCloseable closeable, Duration timeout) {
+        long timeoutNanos = Cleanups.toTimeoutNanos(timeout);
+        if (closeable != null) {
+            append(new Node(closeable, null, timeoutNanos, 0));
+        }
+        return this;
+    }
+
+    /**
+     * @see Cleanups#and(String, AutoCloseable)
+     */
+    public ConcurrentCleanups and(String label, AutoCloseable closeable) {
+        Objects.requireNonNull(label, "label");
+        if (closeable != null) {
+            append(new Node(closeable, label, 0, 0));
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given clean-up statement in the given phase. Unlike {@link Cleanups#inPhase(Phase)}, the phase
+     * is given for each statement, as many threads may register their statements at once.
+     * @see Cleanups#inPhase(Phase)
+     */
+    public ConcurrentCleanups and(Phase phase, AutoCloseable closeable) {
+        int priority = phase.getPriority();
+        if (closeable != null) {
+            append(new Node(closeable, null, 0, priority));
+        }
+        return this;
+    }
+
+    /**
+     * @see Cleanups#withDefaultTimeout(Duration)
+     */
+    public ConcurrentCleanups withDefaultTimeout(Duration timeout) {
+        defaultTimeout = Cleanups.toTimeoutNanos(timeout);
+        return this;
+    }
+
+    private void append(Node node) {
+        Node previous = tail.getAndSet(node);
+        // Between the exchange and this link, the node is registered but can not be reached yet. The consumer
+        // waits for the link when it takes a snapshot which includes the node.
+        previous.next = node;
+        if (closeInline) {
+            // Done at once, along with the ones which are registered by the other threads meanwhile.
+            doAllQuietly();
+        }
+    }
+
+    /**
+     * Does the statements which are registered so far, and makes the ones which are registered after this call
+     * be done as soon as they are registered.
+     */
+    void closeInline() {
+        closeInline = true;
+        doAllQuietly();
+    }
+
+    /**
+     * Takes a snapshot of the statements which are registered so far and removes them from this object.
+     * @return a {@link Cleanups} of the removed statements in their order of registration, which can be done
+     *         by any of its methods.
+     */
+    public synchronized Cleanups drain() {
+        Node last = tail.get();
+        Cleanups snapshot = Cleanups.empty();
+        long timeout = defaultTimeout;
+        if (timeout != 0) {
+            snapshot.withDefaultTimeout(Duration.ofNanos(timeout));
+        }
+        Node node = head;
+        while (node != last) {
+            Node next;
+            while ((next = node.next) == null) {
+                // The producer has exchanged the tail but not linked its node yet, which takes an instant.
+                Thread.yield();
+            }
+            snapshot.add(next.closeable, next.label, next.timeoutNanos, next.phase);
+            next.closeable = null;
+            node = next;
+        }
+        head = last;
+        return snapshot;
+    }
+
+    /**
+     * Does the statements which are registered so far, like {@link Cleanups#doAll()}.
+     */
+    public void doAll() throws IOException {
+        drain().doAll();
+    }
+
+    /**
+     * Does the statements which are registered so far, like {@link Cleanups#doAllQuietly()}.
+     */
+    public void doAllQuietly() {
+        try {
+            doAll();
+        } catch (IOException e) {
+            logger.warn("Failed to clean-up all of the given operations.", e);
+        }
+    }
+
+    /**
+     * Does the statements which are registered so far, like {@link Cleanups#doAll(Duration)}.
+     */
+    public CleanupResult doAll(Duration deadline) {
+        return drain().doAll(deadline);
+    }
+
+    /**
+     * Does the statements which are registered so far, like {@link Cleanups#doAllParallel(Executor)}.
+     */
+    public void doAllParallel(Executor executor) throws IOException {
+        drain().doAllParallel(executor);
+    }
+
+    private static final class Node {
+
+        // Cleared when the node is drained, so that the last drained node does not keep its statement.
+        AutoCloseable closeable;
+        final String label;
+        final long timeoutNanos;
+        final int phase;
+        volatile Node next;
+
+        Node(AutoCloseable closeable, String label, long timeoutNanos, int phase) {
+            this.closeable = closeable;
+            this.label = label;
+            this.timeoutNanos = timeoutNanos;
+            this.phase = phase;
+        }
+    }
+}
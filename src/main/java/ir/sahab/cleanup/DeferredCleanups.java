@@ -0,0 +1,307 @@
+package ir.sahab.cleanup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A service which takes the closing of the short-lived resources (sockets, temporary files, compressors and so
+ * on) off the threads which use them, so that a slow {@code close()} does not add to the latency of a request:
+ * <pre>
+ *  DeferredCleanups deferred = DeferredCleanups.start(8192, 2);
+ *  ...
+ *  deferred.defer(socket);     // Returns at once, the socket is closed by a closer thread.
+ *  ...
+ *  deferred.close();           // Closes the deferred resources which are left, and stops the closer threads.
+ * </pre>
+ *
+ * <p>The deferred statements are put in a bounded queue without locks, and the closer threads of the service
+ * take them in batches and do each batch like {@link Cleanups#doAll()}: every statement is tried, and the
+ * failures are reported to the {@link #withListener(CleanupListener) listener}, which logs them by default.
+ * As the caller has already moved on, the failures are never thrown.
+ *
+ * <p>When the queue is full, the statement is handled by the {@link Backpressure} policy of the service.
+ */
+public final class DeferredCleanups implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeferredCleanups.class);
+
+    private static final int BATCH_SIZE = 64;
+    // The idle closers wake up by themselves too, in case a wake-up is missed.
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public enum Backpressure {
+        /**
+         * The caller waits until there is room in the queue. If it is interrupted meanwhile, or the service is
+         * closed, it closes the statement itself.
+         */
+        BLOCK,
+        /**
+         * The caller closes the statement itself, as if it is not deferred.
+         */
+        CLOSE_INLINE,
+        /**
+         * The statement is dropped without being closed, and is counted by {@link #getDroppedCount()}. It is only
+         * for the resources which are released anyway when they are garbage collected.
+         */
+        DROP
+    }
+
+    private final BoundedQueue<AutoCloseable> queue;
+    private final Closer[] closers;
+    private final AtomicInteger idleClosers = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicBoolean dropLogged = new AtomicBoolean();
+    private volatile Backpressure backpressure = Backpressure.CLOSE_INLINE;
+    private volatile CleanupListener listener;
+    private volatile boolean closed;
+
+    private DeferredCleanups(int capacity, int closerThreads) {
+        queue = new BoundedQueue<>(capacity);
+        closers = new Closer[closerThreads];
+        ThreadFactory threadFactory = CleanupThreads.threadFactory("clean-up-deferred-");
+        for (int i = 0; i < closerThreads; i++) {
+            closers[i] = new Closer(threadFactory);
+        }
+    }
+
+    /**
+     * Creates a service and starts its closer threads, which are daemon threads.
+     * @param capacity the number of the statements which may wait in the queue, which is rounded up to a power
+     *        of two.
+     * @param closerThreads the number of the threads which close the deferred statements.
+     */
+    public static DeferredCleanups start(int capacity, int closerThreads) {
+        if (closerThreads < 1) {
+            throw new IllegalArgumentException("Number of closer threads should be positive: " + closerThreads);
+        }
+        DeferredCleanups deferred = new DeferredCleanups(capacity, closerThreads);
+        for (Closer closer : deferred.closers) {
+            closer.thread.start();
+        }
+        return deferred;
+    }
+
+    /**
+     * Sets what is done with a statement when the queue is full, {@link Backpressure#CLOSE_INLINE} by default.
+     */
+    public DeferredCleanups withBackpressure(Backpressure backpressure) {
+        this.backpressure = Objects.requireNonNull(backpressure, "backpressure");
+        return this;
+    }
+
+    /**
+     * Sets the listener of the deferred statements, instead of logging their failures.
+     * @see Cleanups#withListener(CleanupListener)
+     */
+    public DeferredCleanups withListener(CleanupListener listener) {
+        this.listener = Objects.requireNonNull(listener, "listener");
+        return this;
+    }
+
+    /**
+     * Puts the given statement in the queue to be done by a closer thread, and returns without waiting for it.
+     * If the queue is full, the {@link #withBackpressure(Backpressure) backpressure} policy is applied, and if
+     * the service is closed, the statement is done by the caller.
+     */
+    public void defer(AutoCloseable closeable) {
+        Objects.requireNonNull(closeable, "closeable");
+        if (closed) {
+            closeInline(closeable);
+            return;
+        }
+        if (!queue.offer(closeable)) {
+            switch (backpressure) {
+                case BLOCK:
+                    if (!offerBlocking(closeable)) {
+                        closeInline(closeable);
+                        return;
+                    }
+                    break;
+                case DROP:
+                    drop(closeable);
+                    return;
+                default:
+                    closeInline(closeable);
+                    return;
+            }
+        }
+        if (closed) {
+            // The closers may have stopped before the statement is queued, so it is not left in the queue.
+            closeRemaining();
+        } else if (idleClosers.get() != 0) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Returns the number of the statements which are waiting in the queue.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of the statements which are dropped by {@link Backpressure#DROP} since the start.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops accepting new statements, and waits until the closer threads do the ones in the queue and stop. The
+     * statements which are deferred after this call are done by the callers. If the calling thread is
+     * interrupted, it stops waiting and the closers go on in the background.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Closer closer : closers) {
+            LockSupport.unpark(closer.thread);
+        }
+        try {
+            for (Closer closer : closers) {
+                closer.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for {} deferred clean-up statements.", queue.size());
+        }
+    }
+
+    /**
+     * Waits until the statement is queued.
+     * @return false if the caller is interrupted or the service is closed before it is queued.
+     */
+    private boolean offerBlocking(AutoCloseable closeable) {
+        long parkNanos = 1;
+        while (!queue.offer(closeable)) {
+            if (closed || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (idleClosers.get() != 0) {
+                wakeUp();
+            }
+            LockSupport.parkNanos(this, parkNanos);
+            parkNanos = Math.min(parkNanos * 2, MAX_BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    private void drop(AutoCloseable closeable) {
+        dropped.increment();
+        if (dropLogged.compareAndSet(false, true)) {
+            logger.warn("The queue of the deferred clean-up statements is full, so they are dropped without being "
+                    + "done, e.g. {}. Only this one is logged; see getDroppedCount().", closeable);
+        }
+    }
+
+    private void closeInline(AutoCloseable closeable) {
+        Cleanups cleanups = Cleanups.acquire();
+        doAll(cleanups.and(closeable));
+        cleanups.release();
+    }
+
+    /**
+     * Does the statements which are left in the queue on the calling thread.
+     */
+    private void closeRemaining() {
+        AutoCloseable closeable;
+        while ((closeable = queue.poll()) != null) {
+            closeInline(closeable);
+        }
+    }
+
+    /**
+     * Wakes up an idle closer, if there is still one.
+     */
+    private void wakeUp() {
+        for (Closer closer : closers) {
+            if (closer.idle) {
+                LockSupport.unpark(closer.thread);
+                return;
+            }
+        }
+    }
+
+    private void doAll(Cleanups cleanups) {
+        CleanupListener listener = this.listener;
+        if (listener != null) {
+            cleanups.withListener(listener);
+        }
+        try {
+            cleanups.doAll();
+        } catch (IOException e) {
+            // Each failure is already reported to the listener.
+        }
+    }
+
+    /**
+     * A closer thread, which takes the statements from the queue in batches until the service is closed and
+     * the queue is empty.
+     */
+    private class Closer implements Runnable {
+
+        final Thread thread;
+        volatile boolean idle;
+
+        Closer(ThreadFactory threadFactory) {
+            thread = threadFactory.newThread(this);
+        }
+
+        @Override
+        public void run() {
+            // Reused for all batches, so that doing them allocates nothing.
+            Cleanups batch = new Cleanups();
+            AutoCloseable[] taken = new AutoCloseable[BATCH_SIZE];
+            while (true) {
+                int count = 0;
+                AutoCloseable closeable;
+                while (count < BATCH_SIZE && (closeable = queue.poll()) != null) {
+                    taken[count++] = closeable;
+                }
+                if (count > 0) {
+                    try {
+                        doAll(batch.and(taken));
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to do a batch of the deferred clean-up statements.", e);
+                    } finally {
+                        Arrays.fill(taken, 0, count, null);
+                        batch.reset();
+                    }
+                } else if (closed) {
+                    if (queue.isEmpty()) {
+                        return;
+                    }
+                    // A statement is being queued, and it is taken in the next round.
+                    Thread.yield();
+                } else {
+                    park();
+                }
+            }
+        }
+
+        private void park() {
+            idle = true;
+            idleClosers.incrementAndGet();
+            try {
+                // Checked again after being marked as idle, so that a statement queued meanwhile is not missed.
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(DeferredCleanups.this, IDLE_PARK_NANOS);
+                }
+            } finally {
+                idleClosers.decrementAndGet();
+                idle = false;
+            }
+        }
+    }
+}
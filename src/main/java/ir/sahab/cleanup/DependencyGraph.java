@@ -0,0 +1,197 @@
+package ir.sahab.cleanup;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The "must close before" relations between clean-up statements of a {@link Cleanups}. Nodes are identified
+ * by the index of their statements in the order of registration.
+ *
+ * <p>The graph is kept acyclic all the time: an edge which closes a cycle is rejected when it is added, so
+ * the execution never has to deal with an impossible order.
+ */
+final class DependencyGraph {
+
+    private static final int[] NO_NODES = new int[0];
+
+    private int[][] successors = new int[0][];
+    private int[][] predecessors = new int[0][];
+    private int[] successorCounts = NO_NODES;
+    private int[] predecessorCounts = NO_NODES;
+
+    /**
+     * Declares that node {@code from} must be finished before node {@code to} starts.
+     * @throws IllegalArgumentException if the new edge makes a cycle.
+     */
+    void addEdge(int from, int to) {
+        if (from == to) {
+            throw new IllegalArgumentException("A clean-up statement can not be closed before itself.");
+        }
+        ensureCapacity(Math.max(from, to) + 1);
+        if (contains(successors[from], successorCounts[from], to)) {
+            return;
+        }
+        if (reaches(to, from)) {
+            throw new IllegalArgumentException("Closing statement #" + from + " before statement #" + to
+                    + " makes a cycle in the clean-up order.");
+        }
+        link(from, to);
+    }
+
+    /**
+     * Returns a copy of this graph without the removed nodes, and with the remaining ones renumbered. The order
+     * which is implied through a removed node is kept: if A is before X and X is before B, A is still before B
+     * after X is removed.
+     * @param mapping the new index of each node in {@code [0, size)}, or -1 for the removed ones.
+     */
+    DependencyGraph compact(int[] mapping, int size) {
+        DependencyGraph compacted = new DependencyGraph();
+        int[] visited = new int[size];
+        int[] stack = new int[size];
+        for (int node = 0; node < size; node++) {
+            if (mapping[node] < 0) {
+                continue;
+            }
+            // Nodes are marked by node + 1 to tell them from the zero of the unvisited ones.
+            int top = 0;
+            stack[top++] = node;
+            while (top > 0) {
+                int current = stack[--top];
+                for (int i = 0; i < successorCount(current); i++) {
+                    int next = successors[current][i];
+                    if (visited[next] == node + 1) {
+                        continue;
+                    }
+                    visited[next] = node + 1;
+                    if (mapping[next] >= 0) {
+                        compacted.ensureCapacity(Math.max(mapping[node], mapping[next]) + 1);
+                        compacted.link(mapping[node], mapping[next]);
+                    } else {
+                        stack[top++] = next;
+                    }
+                }
+            }
+        }
+        return compacted;
+    }
+
+    private void link(int from, int to) {
+        if (contains(successors[from], successorCounts[from], to)) {
+            return;
+        }
+        successors[from] = append(successors[from], successorCounts[from]++, to);
+        predecessors[to] = append(predecessors[to], predecessorCounts[to]++, from);
+    }
+
+    int successorCount(int node) {
+        return node < successorCounts.length ? successorCounts[node] : 0;
+    }
+
+    int successor(int node, int i) {
+        return successors[node][i];
+    }
+
+    int predecessorCount(int node) {
+        return node < predecessorCounts.length ? predecessorCounts[node] : 0;
+    }
+
+    int predecessor(int node, int i) {
+        return predecessors[node][i];
+    }
+
+    /**
+     * Returns the nodes {@code [0, size)} in an order which respects all edges. Among the nodes which are
+     * ready at the same time, the one with the lower index comes first. So if the edges agree with the order
+     * of registration, that order is kept.
+     */
+    int[] topologicalOrder(int size) {
+        return topologicalOrder(size, null);
+    }
+
+    /**
+     * Returns the nodes like {@link #topologicalOrder(int)}, but with all nodes of each phase before the nodes
+     * of the later phases. Among the ready nodes, the one with the lower phase comes first, which is enough as
+     * no edge goes back to an earlier phase.
+     * @param phases the phase priority of each node, or null if all of them are in the same phase.
+     */
+    int[] topologicalOrder(int size, int[] phases) {
+        int[] pending = new int[size];
+        // Each node is keyed by its phase in the high bits and its index in the low bits.
+        PriorityQueue<Long> ready = new PriorityQueue<>();
+        for (int node = 0; node < size; node++) {
+            pending[node] = predecessorCount(node);
+            if (pending[node] == 0) {
+                ready.add(key(node, phases));
+            }
+        }
+        int[] order = new int[size];
+        int count = 0;
+        while (!ready.isEmpty()) {
+            int node = (int) (long) ready.poll();
+            order[count++] = node;
+            for (int i = 0; i < successorCount(node); i++) {
+                int next = successors[node][i];
+                if (--pending[next] == 0) {
+                    ready.add(key(next, phases));
+                }
+            }
+        }
+        return order;
+    }
+
+    private static long key(int node, int[] phases) {
+        int phase = phases == null || node >= phases.length ? 0 : phases[node];
+        return (long) phase << Integer.SIZE | node;
+    }
+
+    private boolean reaches(int source, int target) {
+        boolean[] visited = new boolean[successorCounts.length];
+        int[] stack = new int[successorCounts.length];
+        int top = 0;
+        stack[top++] = source;
+        visited[source] = true;
+        while (top > 0) {
+            int node = stack[--top];
+            if (node == target) {
+                return true;
+            }
+            for (int i = 0; i < successorCounts[node]; i++) {
+                int next = successors[node][i];
+                if (!visited[next]) {
+                    visited[next] = true;
+                    stack[top++] = next;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes <= successorCounts.length) {
+            return;
+        }
+        int capacity = Math.max(nodes, successorCounts.length * 2);
+        int oldCapacity = successorCounts.length;
+        successors = Arrays.copyOf(successors, capacity);
+        predecessors = Arrays.copyOf(predecessors, capacity);
+        successorCounts = Arrays.copyOf(successorCounts, capacity);
+        predecessorCounts = Arrays.copyOf(predecessorCounts, capacity);
+        Arrays.fill(successors, oldCapacity, capacity, NO_NODES);
+        Arrays.fill(predecessors, oldCapacity, capacity, NO_NODES);
+    }
+
+    private static boolean contains(int[] nodes, int count, int node) {
+        for (int i = 0; i < count; i++) {
+            if (nodes[i] == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] append(int[] nodes, int count, int node) {
+        int[] result = count < nodes.length ? nodes : Arrays.copyOf(nodes, Math.max(4, count * 2));
+        result[count] = node;
+        return result;
+    }
+}
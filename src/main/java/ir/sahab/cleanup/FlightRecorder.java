@@ -0,0 +1,35 @@
+package ir.sahab.cleanup;
+
+/**
+ * Emits the JDK Flight Recorder events of the clean-up operations. The API of JFR needs Java 11, so this Java 8
+ * version does nothing; the real one is in {@code src/main/java11} and is picked by the runtime from the
+ * multi-release jar. Both of them should have the same methods.
+ *
+ * <p>An event is begun before the operation and ended after it. When the event is not enabled, {@code begin}
+ * returns null and the caller may skip computing the fields of the event.
+ */
+final class FlightRecorder {
+
+    static final String SEQUENTIAL = "sequential";
+    static final String DEADLINE = "deadline";
+    static final String PARALLEL = "parallel";
+
+    private FlightRecorder() {
+    }
+
+    static Object beginClose() {
+        return null;
+    }
+
+    static void endClose(Object event, AutoCloseable closeStatement, String label, Exception failure) {
+        // No events before Java 11.
+    }
+
+    static Object beginDoAll() {
+        return null;
+    }
+
+    static void endDoAll(Object event, String mode, int statements, int failures) {
+        // No events before Java 11.
+    }
+}
@@ -0,0 +1,121 @@
+package ir.sahab.cleanup;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the {@link Cleanups} objects which are never done, like the {@code ResourceLeakDetector} of Netty. A
+ * sample of the created objects are tracked with the stack trace of their creation, and when one of them is
+ * garbage collected before doing all of its statements, the leak is reported in the log with that stack trace.
+ * The leaked statements are not done, unless the object has
+ * {@link Cleanups#withGarbageCollectionFallback() a fallback} too. An object is tracked only while it has
+ * pending statements, so tracking does not keep the done objects reachable; but an object with a pending
+ * statement which refers to the object itself (e.g. {@code cleanups.and(this::stop)} in a field of the same
+ * owner) is kept reachable by the tracker, and can never be reported.
+ *
+ * <p>The level and the sampling interval can be set by the system properties
+ * {@value #LEVEL_PROPERTY} (one of the {@link Level}s, {@code DISABLED} by default) and
+ * {@value #SAMPLING_INTERVAL_PROPERTY} ({@value #DEFAULT_SAMPLING_INTERVAL} by default), or by the setters of
+ * this class at runtime.
+ */
+public final class LeakDetection {
+
+    public static final String LEVEL_PROPERTY = "ir.sahab.cleanup.leakDetection.level";
+    public static final String SAMPLING_INTERVAL_PROPERTY = "ir.sahab.cleanup.leakDetection.samplingInterval";
+    public static final int DEFAULT_SAMPLING_INTERVAL = 128;
+
+    private static final Logger logger = LoggerFactory.getLogger(LeakDetection.class);
+
+    private static volatile Level level = levelProperty();
+    private static volatile int samplingInterval = samplingIntervalProperty();
+
+    public enum Level {
+        /**
+         * No object is tracked, and creating them costs nothing more.
+         */
+        DISABLED,
+        /**
+         * One in {@link #getSamplingInterval() sampling interval} objects is tracked, which is cheap enough for
+         * the production.
+         */
+        SIMPLE,
+        /**
+         * Every object is tracked. It is meant for the tests, as taking a stack trace for each object is costly.
+         */
+        PARANOID
+    }
+
+    private LeakDetection() {
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        LeakDetection.level = Objects.requireNonNull(level, "level");
+    }
+
+    public static int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Sets the number of the created objects for each tracked one, on the {@link Level#SIMPLE} level.
+     */
+    public static void setSamplingInterval(int samplingInterval) {
+        if (samplingInterval < 1) {
+            throw new IllegalArgumentException("Sampling interval should be positive: " + samplingInterval);
+        }
+        LeakDetection.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Tracks the given new object if it is sampled.
+     * @return the tracker of the object, or null if it is not tracked.
+     */
+    static LeakTracker track(Cleanups cleanups) {
+        Level level = LeakDetection.level;
+        if (level == Level.DISABLED) {
+            return null;
+        }
+        if (level == Level.SIMPLE && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+            return null;
+        }
+        return LeakTracker.track(cleanups, new Throwable("The leaked Cleanups object is created here."));
+    }
+
+    private static Level levelProperty() {
+        String value = System.getProperty(LEVEL_PROPERTY);
+        if (value == null) {
+            return Level.DISABLED;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid value of {}: {}. Leak detection is disabled.", LEVEL_PROPERTY, value);
+            return Level.DISABLED;
+        }
+    }
+
+    private static int samplingIntervalProperty() {
+        String value = System.getProperty(SAMPLING_INTERVAL_PROPERTY);
+        if (value == null) {
+            return DEFAULT_SAMPLING_INTERVAL;
+        }
+        try {
+            int interval = Integer.parseInt(value.trim());
+            if (interval >= 1) {
+                return interval;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below, like a non-positive one.
+        }
+        logger.warn("Invalid value of {}: {}. The default value {} is used.", SAMPLING_INTERVAL_PROPERTY, value,
+                DEFAULT_SAMPLING_INTERVAL);
+        return DEFAULT_SAMPLING_INTERVAL;
+    }
+}
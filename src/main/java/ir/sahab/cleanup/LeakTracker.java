@@ -0,0 +1,151 @@
+package ir.sahab.cleanup;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of a {@link Cleanups} which should be done before it is garbage collected, and reports its
+ * pending statements if it is not, with the stack trace of its creation if it is sampled by
+ * {@link LeakDetection}. If the fallback is enabled, it does them too. It is what {@code java.lang.ref.Cleaner}
+ * does in Java 9, on a phantom reference and a daemon thread of our own, as we support Java 8.
+ *
+ * <p>The tracker must not refer to its {@link Cleanups}, otherwise it would never become unreachable. So it
+ * keeps the array of the statements, which is shared with the object and is updated by it whenever it is
+ * replaced, and the number of the statements which are already done. It keeps them only while some of the
+ * statements are pending: when none is, the tracker lets go of the array and is not reachable by itself, so a
+ * statement which refers to the object does not keep it from being collected after it is done. While such a
+ * statement is pending, though, the object stays reachable and is never reported.
+ */
+final class LeakTracker extends PhantomReference<Cleanups> {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeakTracker.class);
+
+    private static final ReferenceQueue<Cleanups> queue = new ReferenceQueue<>();
+    // The trackers must be reachable themselves while their referents have pending statements.
+    private static final Set<LeakTracker> trackers = ConcurrentHashMap.newKeySet();
+
+    // Null while none of the statements is pending.
+    private volatile AutoCloseable[] statements;
+    private volatile int done;
+    private volatile boolean fallback;
+    private final Throwable creation;
+
+    private LeakTracker(Cleanups cleanups, Throwable creation) {
+        super(cleanups, queue);
+        this.creation = creation;
+    }
+
+    /**
+     * Creates the tracker of an object, which starts tracking it when it has a pending statement.
+     * @param creation the stack trace of the creation of the object, or null if it is not recorded.
+     */
+    static LeakTracker track(Cleanups cleanups, Throwable creation) {
+        Reaper.start();
+        return new LeakTracker(cleanups, creation);
+    }
+
+    /**
+     * Tracks the statements which are added from the given index on, before they are added.
+     * @param statements the array of the statements, which may be replaced by a larger one.
+     * @param done the number of the statements at the start of the array which are already done, if none of
+     *        them is pending yet.
+     */
+    void pending(AutoCloseable[] statements, int done) {
+        if (this.statements == null) {
+            // The done count is written first, as the reaper reads it after the array.
+            this.done = done;
+            this.statements = statements;
+            trackers.add(this);
+        } else {
+            this.statements = statements;
+        }
+    }
+
+    /**
+     * Updates the array of the statements after it is compacted, if some of them are pending.
+     * @param done the number of the statements at the start of the new array which are already done.
+     */
+    void update(AutoCloseable[] statements, int done) {
+        if (this.statements != null) {
+            this.done = done;
+            this.statements = statements;
+        }
+    }
+
+    void enableFallback() {
+        fallback = true;
+    }
+
+    /**
+     * Stops tracking, as none of the statements is pending anymore: they are being done, handed off or
+     * removed. The tracker is tracking again when a statement is added after that.
+     */
+    void release() {
+        statements = null;
+        trackers.remove(this);
+    }
+
+    int done() {
+        return done;
+    }
+
+    private void reap() {
+        trackers.remove(this);
+        AutoCloseable[] statements = this.statements;
+        if (statements == null) {
+            return;
+        }
+        List<AutoCloseable> pending = new ArrayList<>();
+        for (int i = done; i < statements.length; i++) {
+            if (statements[i] != null) {
+                pending.add(statements[i]);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (!fallback) {
+            logger.error("LEAK: A Cleanups object is garbage collected before doing {} of its statements: {}",
+                    pending.size(), pending, creation);
+            return;
+        }
+        logger.error("A Cleanups object is garbage collected before doing {} of its statements; doing them now: {}",
+                pending.size(), pending, creation);
+        Cleanups.of(pending).doAllQuietly();
+    }
+
+    /**
+     * The thread which does the pending statements of the collected objects, one after another.
+     */
+    private static class Reaper {
+
+        static final Thread thread = CleanupThreads.threadFactory("clean-up-reaper-").newThread(Reaper::run);
+
+        static {
+            thread.start();
+        }
+
+        static void start() {
+            // Starting is done by the initialization of the class, which happens only once.
+        }
+
+        private static void run() {
+            while (true) {
+                try {
+                    ((LeakTracker) queue.remove()).reap();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("Failed to do the pending statements of a garbage collected Cleanups.", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package ir.sahab.cleanup;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default {@link CleanupListener}, which logs the failures. The failing threads only put them in a bounded
+ * queue, and a daemon thread logs them, so they do not wait for the logging backend.
+ *
+ * <p>As a clean-up may fail thousands of times the same way (e.g. "connection reset" for each connection of a
+ * pool), the failures are grouped by their class and message. Only the first {@value #MAX_TRACES_PER_KIND} of
+ * each group are logged with their stack traces, and at most {@value #MAX_LOGS_PER_SECOND} in each second in
+ * total; the rest of them are counted and summarized once a second, a line for each group.
+ */
+final class LoggingListener implements CleanupListener {
+
+    // The failures are logged by the logger of Cleanups, like they were logged before this listener.
+    private static final Logger logger = LoggerFactory.getLogger(Cleanups.class);
+
+    static final LoggingListener INSTANCE = new LoggingListener();
+
+    private static final int MAX_LOGS_PER_SECOND = 100;
+    private static final int MAX_TRACES_PER_KIND = 3;
+    // The failures of more kinds are counted together, so that the groups do not take unlimited memory.
+    private static final int MAX_KINDS = 1024;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BlockingQueue<Exception> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // The failures which are queued but not logged yet, to know when everything is logged.
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ConcurrentMap<Kind, Kind> kinds = new ConcurrentHashMap<>();
+    private final Kind otherKinds = new Kind("other exceptions", null);
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger windowCount = new AtomicInteger();
+
+    private LoggingListener() {
+    }
+
+    @Override
+    public void onFailure(AutoCloseable statement, Exception failure) {
+        Writer.start();
+        Kind kind = kindOf(failure);
+        if (kind.count.incrementAndGet() <= MAX_TRACES_PER_KIND && acquirePermit()) {
+            pending.incrementAndGet();
+            if (queue.offer(failure)) {
+                return;
+            }
+            pending.decrementAndGet();
+        }
+        kind.unreported.incrementAndGet();
+        if (kind != otherKinds && kinds.get(kind) != kind) {
+            // The kind is forgotten by the summary meanwhile, which may not see this failure anymore.
+            long late = kind.unreported.getAndSet(0);
+            if (late > 0) {
+                otherKinds.unreported.addAndGet(late);
+            }
+        }
+    }
+
+    private Kind kindOf(Exception failure) {
+        Kind key = new Kind(failure.getClass().getName(), failure.getMessage());
+        Kind kind = kinds.get(key);
+        if (kind != null) {
+            return kind;
+        }
+        if (kinds.size() >= MAX_KINDS) {
+            return otherKinds;
+        }
+        kind = kinds.putIfAbsent(key, key);
+        return kind == null ? key : kind;
+    }
+
+    /**
+     * Returns true if one more failure can be logged in the current second.
+     */
+    private boolean acquirePermit() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= SECOND_NANOS && windowStart.compareAndSet(start, now)) {
+            windowCount.set(0);
+        }
+        return windowCount.incrementAndGet() <= MAX_LOGS_PER_SECOND;
+    }
+
+    /**
+     * Waits until the queued failures are logged, or the given time passes, and logs the summary of the rest.
+     * It is called before the process exits, as the daemon thread may be stopped before logging them.
+     */
+    void flush(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (pending.get() > 0 && deadline - System.nanoTime() > 0) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        summarize();
+    }
+
+    private void log(Exception failure) {
+        if (failure instanceof Cleanups.AbandonedException) {
+            logger.error("Abandoned clean-up statement.", failure);
+        } else {
+            logger.error("Failed to run clean-up statement.", failure);
+        }
+    }
+
+    /**
+     * Logs the number of the failures of each kind which are not logged, and forgets the kinds which did not
+     * happen since the last summary, so that their next failures are logged with stack traces again.
+     */
+    private synchronized void summarize() {
+        for (Kind kind : kinds.values()) {
+            if (!kind.summarize() && kinds.remove(kind, kind)) {
+                // A failure which is counted before the removal is logged here; after it, by its thread.
+                kind.logUnreported();
+            }
+        }
+        otherKinds.summarize();
+    }
+
+    /**
+     * The failures with the same class and message.
+     */
+    private static final class Kind {
+
+        final String type;
+        final String message;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong unreported = new AtomicLong();
+        // Only accessed by the summary.
+        private long summarizedCount;
+
+        Kind(String type, String message) {
+            this.type = type;
+            this.message = message;
+        }
+
+        /**
+         * Logs the unreported failures, and returns false if there was no failure since the last summary.
+         */
+        boolean summarize() {
+            logUnreported();
+            long currentCount = count.get();
+            boolean active = currentCount != summarizedCount;
+            summarizedCount = currentCount;
+            return active;
+        }
+
+        void logUnreported() {
+            long unreportedCount = unreported.getAndSet(0);
+            if (unreportedCount > 0) {
+                logger.error("{} more clean-up statements failed with {}: {}", unreportedCount, type, message);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Kind)) {
+                return false;
+            }
+            Kind kind = (Kind) o;
+            return type.equals(kind.type) && Objects.equals(message, kind.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + Objects.hashCode(message);
+        }
+    }
+
+    /**
+     * The daemon thread which logs the queued failures, and the summary of the rest of them once a second.
+     */
+    private static class Writer {
+
+        static final Thread thread = CleanupThreads.threadFactory("clean-up-logger-").newThread(Writer::run);
+
+        static {
+            thread.start();
+        }
+
+        static void start() {
+            // Starting is done by the initialization of the class, which happens only once.
+        }
+
+        private static void run() {
+            LoggingListener listener = INSTANCE;
+            long lastSummary = System.nanoTime();
+            while (true) {
+                try {
+                    Exception failure = listener.queue.poll(1, TimeUnit.SECONDS);
+                    if (failure != null) {
+                        try {
+                            listener.log(failure);
+                        } finally {
+                            listener.pending.decrementAndGet();
+                        }
+                    }
+                    if (System.nanoTime() - lastSummary >= SECOND_NANOS) {
+                        lastSummary = System.nanoTime();
+                        listener.summarize();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    // The logging backend failed, which should not stop logging the next failures.
+                }
+            }
+        }
+    }
+}
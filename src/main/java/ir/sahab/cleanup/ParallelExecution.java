@@ -0,0 +1,239 @@
+package ir.sahab.cleanup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Runs the clean-up statements of a {@link Cleanups} concurrently on an executor. Each statement is submitted
+ * as soon as all of the statements which must be closed before it are finished, so independent statements
+ * run at the same time while the declared order is still respected.
+ *
+ * <p>An {@link AsyncCloseable} is only started by its task, so it does not hold a thread of the executor
+ * while it is being closed; it is finished when its returned stage is completed.
+ *
+ * <p>If the statements are in {@link Phase phases}, the phases are run one after another: each one is started
+ * when all statements of the previous one are finished, and its own statements run concurrently.
+ *
+ * <p>A failed statement counts as finished: its successors are still run, as every statement should be
+ * tried if it is possible. So does a statement which is abandoned by the watchdog because of its timeout.
+ */
+final class ParallelExecution {
+
+    private final Cleanups cleanups;
+    private final DependencyGraph dependencies;
+    private final Executor executor;
+    private final Exception[] failures;
+    private final AtomicIntegerArray pendingPredecessors;
+    // The number of the remaining statements of the current phase, which are all of them if there is no phase.
+    private final AtomicInteger remaining;
+    private final AtomicInteger finished = new AtomicInteger();
+    private final int[] phaseOrder;
+    private final int[] phaseEnds;
+    private int phase;
+    private final CompletableFuture<CleanupResult> completion = new CompletableFuture<>();
+    private Object event;
+
+    ParallelExecution(Cleanups cleanups, Executor executor) {
+        this.cleanups = cleanups;
+        this.dependencies = cleanups.dependencies();
+        this.executor = executor;
+        this.failures = new Exception[cleanups.size()];
+        this.pendingPredecessors = dependencies == null ? null : new AtomicIntegerArray(cleanups.size());
+        if (cleanups.phases() == null || cleanups.size() == 0) {
+            this.phaseOrder = null;
+            this.phaseEnds = null;
+            this.remaining = new AtomicInteger(cleanups.size());
+        } else {
+            this.phaseOrder = sortByPhase(cleanups);
+            this.phaseEnds = phaseEnds(cleanups, phaseOrder);
+            this.remaining = new AtomicInteger(phaseEnds[0]);
+        }
+    }
+
+    /**
+     * Returns the indexes of the statements sorted by their phases, and by their indexes within each phase.
+     */
+    private static int[] sortByPhase(Cleanups cleanups) {
+        long[] keys = new long[cleanups.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) cleanups.phaseOf(i) << Integer.SIZE | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * Returns the end offset of each phase in the given order.
+     */
+    private static int[] phaseEnds(Cleanups cleanups, int[] order) {
+        int[] ends = new int[order.length];
+        int count = 0;
+        for (int i = 1; i <= order.length; i++) {
+            if (i == order.length || cleanups.phaseOf(order[i]) != cleanups.phaseOf(order[i - 1])) {
+                ends[count++] = i;
+            }
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * Starts running the statements and returns immediately.
+     * @return a future which is completed, by the thread which finishes the last statement, when all statements
+     *         are finished. Its first exception belongs to the earliest registered statement which failed.
+     */
+    CompletableFuture<CleanupResult> start() {
+        event = FlightRecorder.beginDoAll();
+        cleanups.beginExecution();
+        int size = cleanups.size();
+        if (size == 0) {
+            complete();
+            return completion;
+        }
+        if (dependencies != null) {
+            for (int i = 0; i < size; i++) {
+                pendingPredecessors.set(i, dependencies.predecessorCount(i));
+            }
+        }
+        if (phaseOrder != null) {
+            startPhase(0);
+            return completion;
+        }
+        for (int i = 0; i < size; i++) {
+            if (dependencies == null || dependencies.predecessorCount(i) == 0) {
+                submit(i);
+            }
+        }
+        return completion;
+    }
+
+    private void startPhase(int phase) {
+        this.phase = phase;
+        int start = phase == 0 ? 0 : phaseEnds[phase - 1];
+        int end = phaseEnds[phase];
+        // The ready statements are found before submitting any of them, as a finished one may make its
+        // successors ready, which are submitted by itself.
+        int[] ready = new int[end - start];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (dependencies == null || pendingPredecessors.get(phaseOrder[i]) == 0) {
+                ready[count++] = phaseOrder[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            submit(ready[i]);
+        }
+    }
+
+    /**
+     * Submits the given statement to the executor, or to the shared closers if the executor rejects it. It is
+     * not run inline, as the submitting thread may be a shared one, like the closer which finishes an abandoned
+     * statement.
+     */
+    private void submit(int index) {
+        Runnable task = () -> close(index);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            CleanupThreads.closers().execute(task);
+        }
+    }
+
+    private void close(int index) {
+        AutoCloseable closeStatement = cleanups.closeStatement(index);
+        if (closeStatement == null) {
+            // Unregistered, but it still orders its predecessors before its successors.
+            finished(index);
+            return;
+        }
+        long timeout = cleanups.timeoutOf(index);
+        if (cleanups.isAsync(index)) {
+            cleanups.startClose(index, timeout).thenAccept(failure -> {
+                failures[index] = failure;
+                finished(index);
+            });
+            return;
+        }
+        if (timeout == 0) {
+            try {
+                failures[index] = cleanups.closeNow(index);
+            } finally {
+                finished(index);
+            }
+            return;
+        }
+        // Whichever completes the result first, the statement itself or the watchdog, finishes it.
+        Cleanups.StatementResult result = new Cleanups.StatementResult();
+        result.thenAccept(failure -> {
+            failures[index] = failure;
+            finished(index);
+        });
+        CleanupListener listener = cleanups.failureListener(true);
+        ScheduledFuture<?> timer = Cleanups.expireAfter(result, closeStatement, timeout, listener);
+        result.finish(closeStatement, cleanups.closeNow(index, null), listener, timer);
+    }
+
+    /**
+     * Returns the number of the statements which are finished so far, to report the progress.
+     */
+    int finishedCount() {
+        return finished.get();
+    }
+
+    private void finished(int index) {
+        finished.incrementAndGet();
+        if (dependencies != null) {
+            for (int i = 0; i < dependencies.successorCount(index); i++) {
+                int successor = dependencies.successor(index, i);
+                // A successor in a later phase is submitted when its phase starts.
+                if (pendingPredecessors.decrementAndGet(successor) == 0
+                        && cleanups.phaseOf(successor) == cleanups.phaseOf(index)) {
+                    submit(successor);
+                }
+            }
+        }
+        if (remaining.decrementAndGet() != 0) {
+            return;
+        }
+        if (phaseOrder != null && phase + 1 < phaseEnds.length) {
+            remaining.set(phaseEnds[phase + 1] - phaseEnds[phase]);
+            startPhase(phase + 1);
+        } else {
+            complete();
+        }
+    }
+
+    private void complete() {
+        Exception firstException = null;
+        int failureCount = 0;
+        List<AutoCloseable> abandoned = new ArrayList<>();
+        for (int i = 0; i < failures.length; i++) {
+            if (failures[i] != null) {
+                failureCount++;
+            }
+            if (firstException == null) {
+                firstException = failures[i];
+            }
+            if (failures[i] instanceof Cleanups.AbandonedException && cleanups.closeStatement(i) != null) {
+                abandoned.add(cleanups.closeStatement(i));
+            }
+        }
+        cleanups.endExecution();
+        FlightRecorder.endDoAll(event, FlightRecorder.PARALLEL, failures.length, failureCount);
+        if (cleanups.listener() != null) {
+            cleanups.listener().onComplete(failures.length, failureCount);
+        }
+        completion.complete(new CleanupResult(firstException, abandoned, Collections.emptyList()));
+    }
+}
@@ -0,0 +1,66 @@
+package ir.sahab.cleanup;
+
+import java.util.Objects;
+
+/**
+ * A named step of a shutdown, like stopping to accept new requests or flushing the buffers. The statements of a
+ * {@link Cleanups} which are registered in phases are done phase by phase, in the order of the priorities of
+ * the phases: no statement of a phase is started before all of the statements of the previous phases are
+ * finished. Within a phase, the statements are done like before, so the parallel methods do them concurrently.
+ *
+ * <p>The predefined phases are spaced apart, so that custom phases can be put between them. The phases with
+ * the same priority are the same.
+ *
+ * @see Cleanups#inPhase(Phase)
+ */
+public final class Phase {
+
+    /**
+     * The statements which are registered before choosing any phase, are in this phase.
+     */
+    public static final Phase DEFAULT = new Phase("DEFAULT", 0);
+    public static final Phase STOP_ACCEPTING = new Phase("STOP_ACCEPTING", 100);
+    public static final Phase DRAIN = new Phase("DRAIN", 200);
+    public static final Phase FLUSH = new Phase("FLUSH", 300);
+    public static final Phase CLOSE_CLIENTS = new Phase("CLOSE_CLIENTS", 400);
+    public static final Phase RELEASE_STORAGE = new Phase("RELEASE_STORAGE", 500);
+
+    private final String name;
+    private final int priority;
+
+    private Phase(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    /**
+     * Returns a custom phase, which is done after the phases with lower priorities and before the ones with
+     * higher priorities.
+     */
+    public static Phase of(String name, int priority) {
+        return new Phase(Objects.requireNonNull(name, "name"), priority);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Phase && ((Phase) o).priority == priority;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(priority);
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + priority + ")";
+    }
+}
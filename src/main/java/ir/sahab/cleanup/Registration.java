@@ -0,0 +1,17 @@
+package ir.sahab.cleanup;
+
+/**
+ * A handle to a clean-up statement which is registered in a {@link Cleanups}, which can remove it when it is
+ * not needed anymore, e.g. when the resource is closed by its owner before the clean-up.
+ *
+ * @see Cleanups#register(AutoCloseable)
+ */
+public interface Registration {
+
+    /**
+     * Removes the statement from its {@link Cleanups}, so it is not done and not referenced by it anymore. It
+     * takes a constant time, and calling it again has no effect.
+     * @return true if the statement is removed by this call, false if it was already removed.
+     */
+    boolean unregister();
+}
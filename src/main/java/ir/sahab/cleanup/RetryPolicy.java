@@ -0,0 +1,117 @@
+package ir.sahab.cleanup;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Tells how a clean-up statement which fails transiently is retried, e.g. deleting a file which is held for a
+ * moment by another process. Each retry is done after a delay which grows exponentially, up to a maximum.
+ * It is immutable, and each {@code with} method returns a modified copy:
+ * <pre>
+ *  RetryPolicy.attempts(5)
+ *          .withBackoff(Duration.ofMillis(50), 2, Duration.ofSeconds(1))
+ *          .retryIf(e -> e instanceof FileSystemException)
+ * </pre>
+ *
+ * @see Cleanups#and(AutoCloseable, RetryPolicy)
+ */
+public final class RetryPolicy {
+
+    private static final long DEFAULT_INITIAL_DELAY = Duration.ofMillis(100).toNanos();
+    private static final double DEFAULT_MULTIPLIER = 2;
+    private static final long DEFAULT_MAX_DELAY = Duration.ofSeconds(10).toNanos();
+
+    private final int maxAttempts;
+    private final long initialDelayNanos;
+    private final double multiplier;
+    private final long maxDelayNanos;
+    private final Predicate<? super Exception> retryable;
+
+    private RetryPolicy(int maxAttempts, long initialDelayNanos, double multiplier, long maxDelayNanos,
+            Predicate<? super Exception> retryable) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelayNanos = initialDelayNanos;
+        this.multiplier = multiplier;
+        this.maxDelayNanos = maxDelayNanos;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Returns a policy which tries a statement at most the given number of times in total, on any exception,
+     * with a delay of 100 milliseconds which is doubled for each retry up to 10 seconds.
+     */
+    public static RetryPolicy attempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts should be positive: " + maxAttempts);
+        }
+        return new RetryPolicy(maxAttempts, DEFAULT_INITIAL_DELAY, DEFAULT_MULTIPLIER, DEFAULT_MAX_DELAY,
+                e -> true);
+    }
+
+    /**
+     * Returns a copy of this policy which waits {@code initialDelay} before the first retry, and
+     * {@code multiplier} times the previous delay before each next one, but not more than {@code maxDelay}.
+     */
+    public RetryPolicy withBackoff(Duration initialDelay, double multiplier, Duration maxDelay) {
+        if (initialDelay.isNegative() || maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("Invalid backoff delays: " + initialDelay + ", " + maxDelay);
+        }
+        if (!(multiplier >= 1)) {
+            throw new IllegalArgumentException("Multiplier should not be less than one: " + multiplier);
+        }
+        return new RetryPolicy(maxAttempts, initialDelay.toNanos(), multiplier, maxDelay.toNanos(), retryable);
+    }
+
+    /**
+     * Returns a copy of this policy which retries only the failures which the given predicate accepts.
+     */
+    public RetryPolicy retryIf(Predicate<? super Exception> retryable) {
+        return new RetryPolicy(maxAttempts, initialDelayNanos, multiplier, maxDelayNanos,
+                Objects.requireNonNull(retryable, "retryable"));
+    }
+
+    /**
+     * Returns a copy of this policy which retries only the failures of the given types or their subtypes.
+     */
+    @SafeVarargs
+    public final RetryPolicy retryOn(Class<? extends Exception>... types) {
+        Class<?>[] copy = new Class<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            copy[i] = types[i];
+        }
+        return retryIf(e -> {
+            for (Class<?> type : copy) {
+                if (type.isInstance(e)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns true if the given failure of the given attempt (starting from one) should be retried.
+     */
+    boolean shouldRetry(int attempt, Exception failure) {
+        return attempt < maxAttempts && retryable.test(failure);
+    }
+
+    /**
+     * Returns the delay before the retry which follows the given attempt (starting from one), in nanoseconds.
+     */
+    long delayNanos(int attempt) {
+        double delay = initialDelayNanos * Math.pow(multiplier, attempt - 1);
+        return delay >= maxDelayNanos ? maxDelayNanos : (long) delay;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts + ", initialDelay=" + Duration.ofNanos(initialDelayNanos)
+                + ", multiplier=" + multiplier + ", maxDelay=" + Duration.ofNanos(maxDelayNanos) + "}";
+    }
+}
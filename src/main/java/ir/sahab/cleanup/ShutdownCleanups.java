@@ -0,0 +1,155 @@
+package ir.sahab.cleanup;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The process-wide registry of the clean-up statements which should be done when the JVM shuts down, instead
+ * of adding a shutdown hook for each {@link Cleanups} by hand:
+ * <pre>
+ *  ShutdownCleanups.registry()
+ *          .and(Phase.STOP_ACCEPTING, httpServer)
+ *          .and(Phase.RELEASE_STORAGE, dbConnection);
+ * </pre>
+ *
+ * <p>A single shutdown hook is installed on the first use of the registry. It does the registered statements
+ * in parallel like {@link Cleanups#doAllParallel(java.util.concurrent.Executor)}, phase by phase, and logs
+ * the progress periodically while it waits for them. If they are not finished within the deadline, it halts
+ * the JVM by {@link Runtime#halt(int)}, so that a stuck statement can not hold the process until it is killed
+ * forcibly, without running the other shutdown hooks and finalizers.
+ *
+ * <p>If the registry is used for the first time while the JVM is already shutting down (e.g. by a resource
+ * which is created lazily in another shutdown hook), the hook can not be installed anymore, so the statements
+ * are done as soon as they are registered. The same happens to the statements which are registered after the
+ * hook has done the registry.
+ */
+public final class ShutdownCleanups {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShutdownCleanups.class);
+
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile long deadlineNanos = TimeUnit.SECONDS.toNanos(30);
+    private static volatile long progressIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+    private static volatile boolean haltOnDeadline = true;
+    private static volatile int haltStatus = 1;
+
+    private ShutdownCleanups() {
+    }
+
+    /**
+     * Returns the registry, and installs the shutdown hook if it is not installed yet.
+     */
+    public static ConcurrentCleanups registry() {
+        return Hook.registry;
+    }
+
+    /**
+     * Sets the time which the statements may take in total, 30 seconds by default. It should be less than the
+     * time which the process is given to shut down, e.g. before the SIGKILL of the container.
+     */
+    public static void setDeadline(Duration deadline) {
+        deadlineNanos = Cleanups.toTimeoutNanos(deadline);
+    }
+
+    /**
+     * Sets the period of the progress logs while the statements are running, 5 seconds by default.
+     */
+    public static void setProgressInterval(Duration interval) {
+        progressIntervalNanos = Cleanups.toTimeoutNanos(interval);
+    }
+
+    /**
+     * Sets whether the JVM is halted when the deadline passes, and its exit status. By default, it is halted
+     * with status 1. If it is not halted, the hook just returns and the abandoned statements go on.
+     */
+    public static void setHaltOnDeadline(boolean halt, int status) {
+        haltOnDeadline = halt;
+        haltStatus = status;
+    }
+
+    /**
+     * Does the statements of the registry, which is run by the shutdown hook.
+     */
+    static void run(ConcurrentCleanups registry) {
+        Cleanups cleanups = registry.drain();
+        if (cleanups.size() == 0) {
+            registry.closeInline();
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + deadlineNanos;
+        logger.info("Running {} clean-up statements before shutdown.", cleanups.size());
+        ExecutorService executor =
+                Executors.newCachedThreadPool(CleanupThreads.threadFactory("clean-up-shutdown-"));
+        try {
+            ParallelExecution execution = new ParallelExecution(cleanups, executor);
+            CompletableFuture<CleanupResult> result = execution.start();
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    logger.error("The shutdown clean-up did not finish in {}: {} of {} statements are not finished.",
+                            Duration.ofNanos(deadlineNanos), cleanups.size() - execution.finishedCount(),
+                            cleanups.size());
+                    if (haltOnDeadline) {
+                        LoggingListener.INSTANCE.flush(FLUSH_TIMEOUT_NANOS);
+                        Runtime.getRuntime().halt(haltStatus);
+                    }
+                    return;
+                }
+                try {
+                    CleanupResult finished =
+                            result.get(Math.min(remaining, progressIntervalNanos), TimeUnit.NANOSECONDS);
+                    logger.info("The shutdown clean-up finished in {}: {}", Duration.ofNanos(System.nanoTime() - start),
+                            finished);
+                    return;
+                } catch (TimeoutException e) {
+                    long left = deadline - System.nanoTime();
+                    if (left > 0) {
+                        logger.info("The shutdown clean-up is running: {} of {} statements are finished, {} is left.",
+                                execution.finishedCount(), cleanups.size(), Duration.ofNanos(left));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("The shutdown clean-up is interrupted.", e);
+        } catch (ExecutionException e) {
+            // It is not expected, as the result is never completed exceptionally.
+            logger.error("The shutdown clean-up failed.", e);
+        } finally {
+            // Nobody does the statements which are registered from now on, unless they are done at once.
+            registry.closeInline();
+            executor.shutdown();
+            // The failures are logged by a daemon thread, which is stopped when the hooks are finished.
+            LoggingListener.INSTANCE.flush(FLUSH_TIMEOUT_NANOS);
+        }
+    }
+
+    /**
+     * Installs the hook when the registry is used for the first time, which happens only once.
+     */
+    private static class Hook {
+
+        static final ConcurrentCleanups registry = install();
+
+        private static ConcurrentCleanups install() {
+            ConcurrentCleanups registry = ConcurrentCleanups.empty();
+            try {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> run(registry), "clean-up-shutdown-hook"));
+            } catch (IllegalStateException e) {
+                logger.warn("The JVM is already shutting down, so the statements of the shutdown registry are done "
+                        + "as soon as they are registered.");
+                registry.closeInline();
+            }
+            return registry;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ir.sahab.cleanup;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * The options of a single clean-up statement, for the statements which need more than one of them:
+ * <pre>
+ *  cleanups.and(producer, StatementOptions.create()
+ *          .withLabel("kafka-producer")
+ *          .withTimeout(Duration.ofSeconds(10))
+ *          .withRetry(RetryPolicy.attempts(3)));
+ * </pre>
+ * It is immutable, and each {@code with} method returns a modified copy, so the same options can be shared
+ * between many statements.
+ *
+ * @see Cleanups#and(AutoCloseable, StatementOptions)
+ */
+public final class StatementOptions {
+
+    private static final StatementOptions NONE = new StatementOptions(null, 0, null);
+
+    private final String label;
+    private final long timeoutNanos;
+    private final RetryPolicy retry;
+
+    private StatementOptions(String label, long timeoutNanos, RetryPolicy retry) {
+        this.label = label;
+        this.timeoutNanos = timeoutNanos;
+        this.retry = retry;
+    }
+
+    /**
+     * Returns the options without any label, timeout or retry.
+     */
+    public static StatementOptions create() {
+        return NONE;
+    }
+
+    /**
+     * @see Cleanups#and(String, AutoCloseable)
+     */
+    public StatementOptions withLabel(String label) {
+        return new StatementOptions(Objects.requireNonNull(label, "label"), timeoutNanos, retry);
+    }
+
+    /**
+     * @see Cleanups#and(AutoCloseable, Duration)
+     */
+    public StatementOptions withTimeout(Duration timeout) {
+        return new StatementOptions(label, Cleanups.toTimeoutNanos(timeout), retry);
+    }
+
+    /**
+     * @see Cleanups#and(AutoCloseable, RetryPolicy)
+     */
+    public StatementOptions withRetry(RetryPolicy retry) {
+        return new StatementOptions(label, timeoutNanos, Objects.requireNonNull(retry, "retry"));
+    }
+
+    /**
+     * Returns the label, or null if it is not set.
+     */
+    String label() {
+        return label;
+    }
+
+    /**
+     * Returns the timeout in nanoseconds, or zero if it is not set.
+     */
+    long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Returns the retry policy, or null if it is not set.
+     */
+    RetryPolicy retry() {
+        return retry;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementOptions{label=" + label + ", timeout="
+                + (timeoutNanos == 0 ? null : Duration.ofNanos(timeoutNanos)) + ", retry=" + retry + "}";
+    }
+}
@@ -0,0 +1,49 @@
+package ir.sahab.cleanup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21+, while this library is still compiled for Java 8. The thread
+ * factory is looked up reflectively once; on older runtimes it is simply not available.
+ */
+final class VirtualThreads {
+
+    private static final ThreadFactory factory = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return factory != null;
+    }
+
+    /**
+     * Returns an executor which runs each task on a new virtual thread. It needs no shut down, as it does not
+     * keep any thread.
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads.
+     */
+    static Executor executor() {
+        if (factory == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by Java "
+                    + System.getProperty("java.version") + ", they need Java 21 or later.");
+        }
+        return runnable -> factory.newThread(runnable).start();
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            // The equivalent of: Thread.ofVirtual().name("clean-up-virtual-", 1).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            Method factory = builderClass.getMethod("factory");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = name.invoke(builder, "clean-up-virtual-", 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Either an older runtime, or Java 19/20 without preview features enabled.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ir.sahab.cleanup;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emits the JDK Flight Recorder events of the clean-up operations: a {@code ir.sahab.cleanup.CloseEvent} for
+ * each statement, and a {@code ir.sahab.cleanup.DoAllEvent} which encloses all of them. They let the slow
+ * clean-ups be seen next to the GC and I/O events of the same time.
+ *
+ * <p>This is the Java 11 version which replaces the one in {@code src/main/java} by the multi-release jar.
+ * When the events are not enabled, {@code begin} returns null and nothing else is done.
+ */
+final class FlightRecorder {
+
+    static final String SEQUENTIAL = "sequential";
+    static final String DEADLINE = "deadline";
+    static final String PARALLEL = "parallel";
+
+    private FlightRecorder() {
+    }
+
+    static Object beginClose() {
+        CloseEvent event = new CloseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endClose(Object started, AutoCloseable closeStatement, String label, Exception failure) {
+        if (started == null) {
+            return;
+        }
+        CloseEvent event = (CloseEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.label = label;
+            event.closeableClass = closeStatement.getClass();
+            event.outcome = failure == null ? "SUCCEEDED" : "FAILED";
+            event.failure = failure == null ? null : failure.toString();
+            event.commit();
+        }
+    }
+
+    static Object beginDoAll() {
+        DoAllEvent event = new DoAllEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endDoAll(Object started, String mode, int statements, int failures) {
+        if (started == null) {
+            return;
+        }
+        DoAllEvent event = (DoAllEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.mode = mode;
+            event.statements = statements;
+            event.failures = failures;
+            event.commit();
+        }
+    }
+
+    @Name("ir.sahab.cleanup.CloseEvent")
+    @Label("Clean-up Statement")
+    @Category("Clean-up")
+    @Description("Closing a single statement of a Cleanups")
+    @StackTrace(false)
+    static class CloseEvent extends Event {
+
+        @Label("Label")
+        @Description("The label of the statement, or its class name if it has no label")
+        String label;
+
+        @Label("Class")
+        Class<?> closeableClass;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("ir.sahab.cleanup.DoAllEvent")
+    @Label("Clean-up")
+    @Category("Clean-up")
+    @Description("Doing all of the statements of a Cleanups")
+    static class DoAllEvent extends Event {
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Statements")
+        int statements;
+
+        @Label("Failures")
+        int failures;
+    }
+}
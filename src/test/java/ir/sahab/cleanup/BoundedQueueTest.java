@@ -0,0 +1,98 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+/**
+ * Checks the ring buffer of {@link DeferredCleanups}: its bounds, its order, and that each element is taken
+ * exactly once when many threads offer and poll at once.
+ */
+public class BoundedQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 4;
+    private static final int ELEMENTS_PER_PRODUCER = 100_000;
+
+    @Test
+    public void fullQueueRejectsUntilPolled() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>(3);
+        assertEquals(4, queue.capacity());
+        // A few laps around the ring, to check the sequences of the reused slots.
+        for (int lap = 0; lap < 3; lap++) {
+            assertTrue(queue.isEmpty());
+            assertNull(queue.poll());
+            for (int i = 0; i < 4; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.offer(4));
+            assertEquals(4, queue.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), queue.poll());
+            }
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void eachElementIsTakenOnce() throws InterruptedException {
+        BoundedQueue<Integer> queue = new BoundedQueue<>(64);
+        int total = PRODUCERS * ELEMENTS_PER_PRODUCER;
+        AtomicIntegerArray taken = new AtomicIntegerArray(total);
+        AtomicInteger takenCount = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int first = p * ELEMENTS_PER_PRODUCER;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = first; i < first + ELEMENTS_PER_PRODUCER; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                while (takenCount.get() < total) {
+                    Integer element = queue.poll();
+                    if (element == null) {
+                        Thread.yield();
+                    } else {
+                        taken.incrementAndGet(element);
+                        takenCount.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < total; i++) {
+            assertEquals("Times element " + i + " is taken", 1, taken.get(i));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
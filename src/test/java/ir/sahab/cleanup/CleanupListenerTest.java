@@ -0,0 +1,85 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks the events which a {@link CleanupListener} receives, especially for the abandoned statements.
+ */
+public class CleanupListenerTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final CleanupListener listener = new CleanupListener() {
+        @Override
+        public void onFailure(AutoCloseable statement, Exception failure) {
+            events.add("failure:" + failure.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete(int statements, int failures) {
+            events.add("complete:" + failures + "/" + statements);
+        }
+    };
+
+    @Test
+    public void abandonedStatementIsReportedOnceBeforeCompletion() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        AutoCloseable lateFailure = () -> {
+            try {
+                Thread.sleep(200);
+                throw new IOException("Failed after being abandoned");
+            } finally {
+                failed.countDown();
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new Cleanups().withListener(listener).and(lateFailure, Duration.ofMillis(20)).doAllParallel(executor);
+        } catch (IOException e) {
+            // Expected, as the statement is abandoned.
+        } finally {
+            executor.shutdown();
+        }
+        failed.await(5, TimeUnit.SECONDS);
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("failure:AbandonedException", "complete:1/1"), events);
+    }
+
+    @Test
+    public void emptyParallelExecutionIsCompleted() throws IOException {
+        new Cleanups().withListener(listener).doAllParallel(4);
+        assertEquals(Collections.singletonList("complete:0/0"), events);
+    }
+
+    @Test
+    public void eachFailureIsReportedAndOnlyTheFirstIsThrown() {
+        Cleanups cleanups = new Cleanups().withListener(listener);
+        for (int i = 0; i < 3; i++) {
+            String message = "Failure " + i;
+            cleanups.and(() -> {
+                throw new IOException(message);
+            });
+        }
+        try {
+            cleanups.doAll();
+            fail("The failures should be thrown.");
+        } catch (IOException e) {
+            assertEquals("Failure 0", e.getCause().getMessage());
+            assertEquals(0, e.getSuppressed().length);
+        }
+        assertEquals(Arrays.asList("failure:IOException", "failure:IOException", "failure:IOException",
+                "complete:3/3"), events);
+    }
+}
@@ -0,0 +1,99 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that registering and doing up to 8 statements allocates nothing but the {@link Cleanups} object and
+ * its array of the statements, by the allocation counter of the current thread. Each case is warmed up first,
+ * so that the counter does not see the allocations of the class loading and the compilation.
+ */
+public class CleanupsAllocationTest {
+
+    private static final int MAX_COUNT = 8;
+    private static final int WARM_UP_RUNS = 20_000;
+    private static final int MEASURED_RUNS = 10_000;
+    // The header of an array and 8 references, with the uncompressed references of a large heap.
+    private static final long MAX_ARRAY_BYTES = 16 + MAX_COUNT * 8;
+
+    private static final AutoCloseable NO_OP = () -> { };
+    private static final AutoCloseable[][] STATEMENTS = new AutoCloseable[MAX_COUNT + 1][];
+
+    static {
+        for (int count = 0; count <= MAX_COUNT; count++) {
+            STATEMENTS[count] = new AutoCloseable[count];
+            Arrays.fill(STATEMENTS[count], NO_OP);
+        }
+    }
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        assumeTrue("The allocation counter of the threads is not available.",
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        LeakDetection.setLevel(LeakDetection.Level.DISABLED);
+    }
+
+    @Test
+    public void doAllAllocatesNothing() throws IOException {
+        for (int count = 0; count <= MAX_COUNT; count++) {
+            Cleanups cleanups = Cleanups.empty().and(STATEMENTS[count]);
+            assertEquals("Bytes allocated by doAll() of " + count + " statements", 0,
+                    bytesPerRun(ignored -> cleanups.doAll(), count));
+        }
+    }
+
+    @Test
+    public void pooledScopeAllocatesNothing() throws IOException {
+        Scenario scenario = count -> {
+            Cleanups cleanups = Cleanups.acquire();
+            cleanups.and(STATEMENTS[count]).doAll();
+            cleanups.release();
+        };
+        for (int count = 0; count <= MAX_COUNT; count++) {
+            assertEquals("Bytes allocated by a pooled scope of " + count + " statements", 0,
+                    bytesPerRun(scenario, count));
+        }
+    }
+
+    @Test
+    public void freshScopeAllocatesOnlyTheObjectAndItsArray() throws IOException {
+        Scenario scenario = count -> new Cleanups().and(STATEMENTS[count]).doAll();
+        long empty = bytesPerRun(scenario, 0);
+        long withArray = bytesPerRun(scenario, 1);
+        assertTrue("Bytes allocated for the array of the statements: " + (withArray - empty),
+                withArray - empty <= MAX_ARRAY_BYTES);
+        for (int count = 2; count <= MAX_COUNT; count++) {
+            assertEquals("Bytes allocated by a new scope of " + count + " statements", withArray,
+                    bytesPerRun(scenario, count));
+        }
+    }
+
+    private long bytesPerRun(Scenario scenario, int count) throws IOException {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            scenario.run(count);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            scenario.run(count);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_RUNS;
+    }
+
+    private interface Scenario {
+
+        void run(int count) throws IOException;
+    }
+}
@@ -0,0 +1,87 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks that compacting the storage of the unregistered statements keeps the order of the remaining ones, with
+ * their phases and declared orders, and keeps their handles pointing at them.
+ */
+public class CleanupsCompactionTest {
+
+    private static final int COUNT = 24;
+
+    private final List<Integer> closed = new ArrayList<>();
+
+    @Test
+    public void compactionKeepsOrderAndHandles() throws IOException {
+        Cleanups cleanups = new Cleanups();
+        AutoCloseable[] statements = new AutoCloseable[COUNT];
+        Registration[] handles = new Registration[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            // The first half is closed after the second half, by their phases.
+            if (i == 0) {
+                cleanups.inPhase(Phase.CLOSE_CLIENTS);
+            } else if (i == COUNT / 2) {
+                cleanups.inPhase(Phase.DRAIN);
+            }
+            statements[i] = recorder(i);
+            handles[i] = cleanups.register(statements[i]);
+        }
+        cleanups.closeBefore(statements[20], statements[13]);
+        cleanups.closeBefore(statements[3], statements[1]);
+
+        int[] unregistered = {0, 2, 4, 5, 6, 8, 10, 12, 14, 15, 16, 18};
+        for (int i : unregistered) {
+            assertTrue(handles[i].unregister());
+        }
+        assertTrue("The storage should be compacted", cleanups.size() < COUNT);
+        for (int i : unregistered) {
+            assertFalse(handles[i].unregister());
+        }
+        // Unregistered after the compaction, by a handle whose index is moved.
+        assertTrue(handles[22].unregister());
+        assertFalse(handles[22].unregister());
+        for (int i = 0; i < cleanups.size(); i++) {
+            assertTrue(cleanups.closeStatement(i) != statements[22]);
+        }
+
+        cleanups.doAll();
+        assertEquals(Arrays.asList(17, 19, 20, 13, 21, 23, 3, 1, 7, 9, 11), closed);
+    }
+
+    @Test
+    public void compactionIsPostponedUntilTheEndOfExecution() throws IOException {
+        Cleanups cleanups = new Cleanups();
+        Registration[] handles = new Registration[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            int number = i;
+            handles[i] = cleanups.register(() -> {
+                closed.add(number);
+                handles[number].unregister();
+            });
+        }
+        cleanups.doAll();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, closed);
+        assertEquals(0, cleanups.size());
+
+        closed.clear();
+        cleanups.doAll();
+        assertTrue(closed.isEmpty());
+    }
+
+    private AutoCloseable recorder(int number) {
+        return () -> closed.add(number);
+    }
+}
@@ -0,0 +1,36 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Checks that a statement which hangs can not use up the time of the next statements in
+ * {@link Cleanups#doAll(Duration)}.
+ */
+public class CleanupsDeadlineTest {
+
+    private static final int QUICK_COUNT = 10;
+
+    @Test
+    public void hungStatementDoesNotSkipTheOthers() throws Exception {
+        CountDownLatch hang = new CountDownLatch(1);
+        AtomicInteger closed = new AtomicInteger();
+        Cleanups cleanups = new Cleanups().and(hang::await);
+        for (int i = 0; i < QUICK_COUNT; i++) {
+            cleanups.and(closed::incrementAndGet);
+        }
+        try {
+            CleanupResult result = cleanups.doAll(Duration.ofMillis(1100));
+            assertEquals(1, result.getAbandoned().size());
+            assertTrue("Skipped: " + result.getSkipped(), result.getSkipped().isEmpty());
+            assertEquals(QUICK_COUNT, closed.get());
+        } finally {
+            hang.countDown();
+        }
+    }
+}
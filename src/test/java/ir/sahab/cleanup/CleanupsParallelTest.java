@@ -0,0 +1,133 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Checks the scheduling of the statements by {@link Cleanups#doAllAsync(java.util.concurrent.Executor)}: the
+ * phases are done one after another, the declared orders are respected within a phase, and the timeouts of the
+ * statements do not hold up the shared threads.
+ */
+public class CleanupsParallelTest {
+
+    private static final int THREADS = 4;
+    private static final int STATEMENTS_PER_PHASE = 8;
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void phasesAreDoneOneAfterAnother() throws Exception {
+        Cleanups cleanups = new Cleanups();
+        // Registered in the reverse order of the phases, which should not matter.
+        Phase[] phases = {Phase.CLOSE_CLIENTS, Phase.FLUSH, Phase.DRAIN};
+        for (Phase phase : phases) {
+            cleanups.inPhase(phase);
+            for (int i = 0; i < STATEMENTS_PER_PHASE; i++) {
+                cleanups.and(recorder(phase.getName() + i));
+            }
+        }
+        doAllParallel(cleanups);
+
+        assertEquals(2 * phases.length * STATEMENTS_PER_PHASE, events.size());
+        for (int p = 0; p < phases.length; p++) {
+            // The phases are done from the last registered one, by their priorities.
+            String phase = phases[phases.length - 1 - p].getName();
+            int start = 2 * p * STATEMENTS_PER_PHASE;
+            for (String event : events.subList(start, start + 2 * STATEMENTS_PER_PHASE)) {
+                assertTrue(events.toString(), event.contains(phase));
+            }
+        }
+    }
+
+    @Test
+    public void declaredOrderIsRespected() throws Exception {
+        Cleanups cleanups = new Cleanups();
+        AutoCloseable[] statements = new AutoCloseable[STATEMENTS_PER_PHASE];
+        for (int i = 0; i < STATEMENTS_PER_PHASE; i++) {
+            statements[i] = recorder("s" + i);
+            cleanups.and(statements[i]);
+        }
+        // A chain against the order of registration, and a statement after two others.
+        cleanups.closeBefore(statements[5], statements[3]);
+        cleanups.closeBefore(statements[3], statements[1]);
+        cleanups.closeBefore(statements[6], statements[0]);
+        cleanups.closeBefore(statements[7], statements[0]);
+        doAllParallel(cleanups);
+
+        assertEquals(2 * STATEMENTS_PER_PHASE, events.size());
+        assertBefore("end:s5", "start:s3");
+        assertBefore("end:s3", "start:s1");
+        assertBefore("end:s6", "start:s0");
+        assertBefore("end:s7", "start:s0");
+    }
+
+    @Test
+    public void rejectedSuccessorIsNotRunOnTheWatchdog() throws Exception {
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        CountDownLatch hang = new CountDownLatch(1);
+        CountDownLatch successorStarted = new CountDownLatch(1);
+        AtomicReference<String> successorThread = new AtomicReference<>();
+        AutoCloseable first = hang::await;
+        AutoCloseable second = () -> {
+            successorThread.set(Thread.currentThread().getName());
+            successorStarted.countDown();
+            hang.await();
+        };
+        Cleanups cleanups = new Cleanups().and(first, Duration.ofMillis(50)).and(second);
+        cleanups.closeBefore(first, second);
+        try {
+            // The only thread of the executor is kept by the abandoned statement, so its successor is rejected.
+            cleanups.doAllAsync(executor);
+            assertTrue(successorStarted.await(10, TimeUnit.SECONDS));
+            assertFalse(successorThread.get(), successorThread.get().startsWith("clean-up-watchdog-"));
+
+            // The watchdog is still free to abandon the statements of other objects in time.
+            long start = System.nanoTime();
+            CleanupResult result = new Cleanups().and(hang::await, Duration.ofMillis(50)).doAll(Duration.ofSeconds(10));
+            assertEquals(1, result.getAbandoned().size());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            hang.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private void doAllParallel(Cleanups cleanups) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CleanupResult result = cleanups.doAllAsync(executor).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            assertTrue(result.toString(), result.isSuccessful());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertBefore(String first, String then) {
+        assertTrue(events.toString(), events.indexOf(first) < events.indexOf(then));
+    }
+
+    /**
+     * Returns a statement which records its start and end, and takes a while so that the others overlap it.
+     */
+    private AutoCloseable recorder(String name) {
+        return () -> {
+            events.add("start:" + name);
+            Thread.sleep(5);
+            events.add("end:" + name);
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Checks that {@link Cleanups#reset()} is rejected while the statements are being done, in any mode.
+ */
+public class CleanupsResetTest {
+
+    @Test
+    public void resetIsRejectedWhileBeingDone() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger closed = new AtomicInteger();
+        Cleanups cleanups = Cleanups.of(() -> release.await(), closed::incrementAndGet);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cleanups.doAllAsync(executor);
+            try {
+                cleanups.reset();
+                fail("Reset should be rejected while the statements are being done.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void resetIsAllowedAfterBeingDone() throws IOException {
+        AtomicInteger closed = new AtomicInteger();
+        Cleanups cleanups = Cleanups.of(closed::incrementAndGet);
+        cleanups.doAll();
+        cleanups.reset().and(closed::incrementAndGet).doAll();
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void abandonedStatementIsRunAfterRelease() throws InterruptedException {
+        int count = 20_000;
+        AtomicInteger closed = new AtomicInteger();
+        CleanupListener quiet = new CleanupListener() { };
+        for (int i = 0; i < count; i++) {
+            // Abandoned at once, so its closer thread may start after the slot is reused by the next scope.
+            Cleanups cleanups = Cleanups.acquire().withListener(quiet);
+            cleanups.and(closed::incrementAndGet, Duration.ofNanos(1)).doAll(Duration.ofSeconds(10));
+            cleanups.release();
+        }
+        for (int i = 0; i < 500 && closed.get() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, closed.get());
+    }
+}
@@ -0,0 +1,131 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks what {@link DeferredCleanups} does with a statement under each {@link DeferredCleanups.Backpressure}
+ * policy when its queue is full, that closing it drains the queue, and that an idle closer is woken up for a new
+ * statement without waiting for its periodic wake-up.
+ */
+public class DeferredCleanupsTest {
+
+    // The queue of two statements is filled while the only closer is busy with the blocker.
+    private static final int CAPACITY = 2;
+    // Shorter than the periodic wake-up of the idle closers, which would hide a lost wake-up.
+    private static final long WAKE_UP_MILLIS = 50;
+    private static final int WAKE_UP_ROUNDS = 100;
+
+    private final CountDownLatch blockerStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseBlocker = new CountDownLatch(1);
+    private final AtomicInteger closed = new AtomicInteger();
+    private DeferredCleanups deferred;
+
+    @Before
+    public void setUp() {
+        deferred = DeferredCleanups.start(CAPACITY, 1).withListener(new CleanupListener() { });
+    }
+
+    @After
+    public void tearDown() {
+        releaseBlocker.countDown();
+        deferred.close();
+    }
+
+    @Test
+    public void fullQueueClosesInline() throws InterruptedException {
+        fillQueue();
+        AtomicReference<Thread> closer = new AtomicReference<>();
+        deferred.withBackpressure(DeferredCleanups.Backpressure.CLOSE_INLINE)
+                .defer(() -> closer.set(Thread.currentThread()));
+        assertSame(Thread.currentThread(), closer.get());
+        releaseBlocker.countDown();
+        deferred.close();
+        assertEquals(CAPACITY, closed.get());
+    }
+
+    @Test
+    public void fullQueueDrops() throws InterruptedException {
+        fillQueue();
+        deferred.withBackpressure(DeferredCleanups.Backpressure.DROP).defer(closed::incrementAndGet);
+        assertEquals(1, deferred.getDroppedCount());
+        releaseBlocker.countDown();
+        deferred.close();
+        assertEquals(CAPACITY, closed.get());
+    }
+
+    @Test
+    public void fullQueueBlocksUntilThereIsRoom() throws InterruptedException {
+        fillQueue();
+        deferred.withBackpressure(DeferredCleanups.Backpressure.BLOCK);
+        AtomicReference<Thread> closer = new AtomicReference<>();
+        Thread caller = new Thread(() -> deferred.defer(() -> closer.set(Thread.currentThread())));
+        caller.start();
+        caller.join(WAKE_UP_MILLIS);
+        assertTrue("The caller should wait while the queue is full.", caller.isAlive());
+        releaseBlocker.countDown();
+        caller.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(caller.isAlive());
+        deferred.close();
+        assertEquals(CAPACITY, closed.get());
+        assertTrue("Closed by " + closer.get(), closer.get().getName().startsWith("clean-up-deferred-"));
+    }
+
+    @Test
+    public void closeDrainsTheQueue() throws InterruptedException {
+        fillQueue();
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(WAKE_UP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            releaseBlocker.countDown();
+        });
+        releaser.start();
+        deferred.close();
+        assertEquals(CAPACITY, closed.get());
+        assertEquals(0, deferred.getPendingCount());
+
+        AtomicReference<Thread> closer = new AtomicReference<>();
+        deferred.defer(() -> closer.set(Thread.currentThread()));
+        assertSame("Deferred after being closed", Thread.currentThread(), closer.get());
+    }
+
+    @Test
+    public void idleCloserIsWokenUp() throws InterruptedException {
+        for (int i = 0; i < WAKE_UP_ROUNDS; i++) {
+            // Gives the closer the time to park, so that the wake-up is needed.
+            Thread.sleep(1);
+            CountDownLatch done = new CountDownLatch(1);
+            deferred.defer(done::countDown);
+            assertTrue("Not woken up in round " + i, done.await(WAKE_UP_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Keeps the only closer busy, and fills the queue behind it with the statements which count themselves.
+     */
+    private void fillQueue() throws InterruptedException {
+        deferred.defer(() -> {
+            blockerStarted.countDown();
+            releaseBlocker.await();
+        });
+        assertTrue(blockerStarted.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < CAPACITY; i++) {
+            deferred.withBackpressure(DeferredCleanups.Backpressure.DROP).defer(closed::incrementAndGet);
+        }
+        assertEquals(0, deferred.getDroppedCount());
+        assertEquals(CAPACITY, deferred.getPendingCount());
+    }
+}
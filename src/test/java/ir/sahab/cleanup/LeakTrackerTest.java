@@ -0,0 +1,89 @@
+package ir.sahab.cleanup;
+
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that tracking a {@link Cleanups} for leaks does not keep it reachable once none of its statements is
+ * pending, even if a statement refers to the owner of the object.
+ */
+public class LeakTrackerTest {
+
+    private static final int MAX_COLLECTIONS = 50;
+
+    @Before
+    public void setUp() {
+        LeakDetection.setLevel(LeakDetection.Level.PARANOID);
+    }
+
+    @After
+    public void tearDown() {
+        LeakDetection.setLevel(LeakDetection.Level.DISABLED);
+    }
+
+    @Test
+    public void doneObjectIsCollected() throws Exception {
+        assertCollected(server(Cleanups::doAll));
+    }
+
+    @Test
+    public void doneObjectWithFallbackIsCollected() throws Exception {
+        // Tracked by the fallback alone.
+        LeakDetection.setLevel(LeakDetection.Level.DISABLED);
+        assertCollected(server(cleanups -> cleanups.withGarbageCollectionFallback().doAll()));
+    }
+
+    @Test
+    public void frozenObjectIsCollected() throws Exception {
+        assertCollected(server(Cleanups::freeze));
+    }
+
+    @Test
+    public void resetObjectIsCollected() throws Exception {
+        assertCollected(server(Cleanups::reset));
+    }
+
+    /**
+     * Creates a server and applies the given action to its clean-up, in a frame of its own so that the server
+     * is not reachable from the test after that.
+     */
+    static WeakReference<Server> server(Action action) throws IOException {
+        Server server = new Server();
+        action.apply(server.cleanups);
+        return new WeakReference<>(server);
+    }
+
+    static void assertCollected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < MAX_COLLECTIONS && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("The object should be garbage collected.", reference.get());
+    }
+
+    interface Action {
+
+        void apply(Cleanups cleanups) throws IOException;
+    }
+
+    /**
+     * An owner whose clean-up statement refers to itself.
+     */
+    static class Server {
+
+        final Cleanups cleanups = new Cleanups();
+
+        Server() {
+            cleanups.and(this::stop);
+        }
+
+        private void stop() {
+            // Nothing to stop.
+        }
+    }
+}